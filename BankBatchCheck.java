@@ -0,0 +1,126 @@
+package com.example;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import java.util.*;
+
+// checks that a non-atomic transferBatch refuses only the item whose description the journal cannot hold,
+// then times a payroll run, one account paying each of n payees, as one transferBatch against a loop of
+// transfer calls, with the journal off and on.
+// Every transfer is kept in history and the search index, so at these sizes collection can take most of
+// either figure; each one is printed with the GC time inside it.
+// Usage: java com.example.BankBatchCheck [sizes, e.g. 10000,100000]
+public class BankBatchCheck {
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = Arrays.stream((args.length > 0 ? args[0] : "10000,100000").split(",")).mapToInt(Integer::parseInt).toArray();
+        System.setProperty("bank.pbkdf2.iterations", "1000");
+
+        longDescription();
+        if (failures > 0) {
+            System.out.println("FAILED: " + failures + " check(s)");
+            System.exit(1);
+        }
+        System.out.println("Batch checks OK");
+
+        // a batch is one long call, so it takes a few rounds before it runs compiled like the loop does
+        for (int i = 0; i < 5; i++) {
+            time(sizes[0], false, true);
+            time(sizes[0], false, false);
+        }
+        for (int n : sizes) {
+            for (boolean journal : new boolean[] {false, true}) {
+                long[] loop = time(n, journal, false);
+                long[] batch = time(n, journal, true);
+                System.out.printf("%7d items, journal %-3s: loop %6d ms (%5.1f us/item, GC %5d ms), batch %5d ms (%5.1f us/item, GC %5d ms), %.1fx%n",
+                        n, journal ? "on" : "off", loop[0] / 1_000_000, loop[0] / 1e3 / n, loop[1],
+                        batch[0] / 1_000_000, batch[0] / 1e3 / n, batch[1], (double) loop[0] / batch[0]);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void longDescription() throws Exception {
+        Path path = Files.createTempFile("bank-batch", ".log");
+        Files.delete(path);
+        var bank = new OnlineBankingApp.BankService(new OnlineBankingApp.Journal(path, 0), 3600);
+        String alice = bank.login("alice", "1234").getToken();
+        long before = bank.totalBalance(alice);
+        // three bytes of modified UTF-8 per char, so well past writeUTF's 65535
+        String tooLong = "€".repeat(30_000);
+        var batch = List.of(
+                new OnlineBankingApp.TransferRequest("AC-11001", "AC-22001", 100, "first"),
+                new OnlineBankingApp.TransferRequest("AC-11001", "AC-22001", 100, tooLong),
+                new OnlineBankingApp.TransferRequest("AC-11001", "AC-22001", 100, "third"));
+        try {
+            var result = bank.transferBatch(alice, batch, false);
+            check(result.isCommitted(0) && !result.isCommitted(1) && result.isCommitted(2),
+                    "non-atomic batch refuses only the item with a long description");
+            check("Description is too long".equals(result.getError(1)), "the refused item says why");
+            check(bank.totalBalance(alice) == before - 200, "the other items moved their money");
+        } catch (RuntimeException e) {
+            check(false, "non-atomic batch with a long description threw " + e);
+        }
+        try {
+            bank.transferBatch(alice, batch, true);
+            check(false, "atomic batch with a long description is refused");
+        } catch (IllegalArgumentException expected) {
+            check(bank.totalBalance(alice) == before - 200, "refused atomic batch moved nothing");
+        }
+        bank.close();
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(path.resolveSibling(path.getFileName() + ".snap"));
+    }
+
+    // { nanoseconds, GC milliseconds } for alice to pay 1 paisa to each of n fresh accounts
+    private static long[] time(int n, boolean journaled, boolean batched) throws Exception {
+        Path path = null;
+        OnlineBankingApp.BankService bank;
+        if (journaled) {
+            path = Files.createTempFile("bank-batch", ".log");
+            Files.delete(path);
+            // no window: each force() goes out as soon as the writer has something, as for a lone client
+            bank = new OnlineBankingApp.BankService(new OnlineBankingApp.Journal(path, 0), 3600);
+        } else {
+            bank = new OnlineBankingApp.BankService();
+        }
+        var requests = new ArrayList<OnlineBankingApp.TransferRequest>(n);
+        for (int i = 0; i < n; i++) {
+            String id = "AC-P" + i;
+            bank.addAccount(new OnlineBankingApp.Account(id, "payee-" + i, "Payee", "SAVINGS", 0));
+            requests.add(new OnlineBankingApp.TransferRequest("AC-11001", id, 1, "payroll"));
+        }
+        String alice = bank.login("alice", "1234").getToken();
+
+        long gc = gcMillis();
+        long start = System.nanoTime();
+        if (batched) {
+            bank.transferBatch(alice, requests, true);
+        } else {
+            for (var r : requests) {
+                bank.transfer(alice, r.getFromAccountId(), r.getToAccountId(), r.getAmount(), r.getDescription());
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        gc = gcMillis() - gc;
+        if (path != null) {
+            bank.close();
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(path.resolveSibling(path.getFileName() + ".snap"));
+        }
+        return new long[] {elapsed, gc};
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (var gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += gc.getCollectionTime();
+        }
+        return millis;
+    }
+
+    private static void check(boolean ok, String what) {
+        System.out.println((ok ? "ok      " : "FAILED  ") + what);
+        if (!ok) failures++;
+    }
+}
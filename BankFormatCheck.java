@@ -0,0 +1,87 @@
+package com.example;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+// times what the History table formats for its rows, 100k of them by default: the date and amount cells
+// the way they were built before (a new DateTimeFormatter per date cell, a new builder per amount) and
+// the way Transaction builds them now, on the first render that fills its cache and on later ones.
+// Usage: java com.example.BankFormatCheck [rows] [rounds]
+public class BankFormatCheck {
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        var start = LocalDateTime.of(2024, 1, 1, 9, 0);
+        var random = new Random(42);
+
+        // the last round of each is reported, once the earlier ones have compiled it
+        long[] before = null, first = null, again = null;
+        for (int round = 1; round <= rounds; round++) {
+            // fresh transactions each round, so the first render really starts from an empty cache
+            var table = new ArrayList<OnlineBankingApp.Transaction>(rows);
+            for (int i = 0; i < rows; i++) {
+                table.add(new OnlineBankingApp.Transaction(i, "T" + i, start.plusMinutes(i), "AC-11001", "AC-22001",
+                        1 + random.nextInt(10_000_000), "row " + i));
+            }
+            before = render(table, false);
+            first = render(table, true);
+            again = render(table, true);
+            if (round == 1) {
+                for (var t : table) {
+                    if (!t.getWhenFormatted().equals(oldWhen(t)) || !t.getAmountFormatted().equals(oldAmount(t))) {
+                        System.out.println("FAILED: cached display differs for " + t.getId() + ": "
+                                + t.getWhenFormatted() + " " + t.getAmountFormatted() + " vs " + oldWhen(t) + " " + oldAmount(t));
+                        System.exit(1);
+                    }
+                }
+                System.out.println("Cached display forms match the old ones");
+            }
+        }
+        report("per-cell formatter and builder (before)", rows, before);
+        report("cached display, first render", rows, first);
+        report("cached display, re-render", rows, again);
+    }
+
+    // { nanoseconds, bytes allocated } for one pass over every row's date and amount cells
+    private static long[] render(List<OnlineBankingApp.Transaction> table, boolean cached) {
+        long bytes = allocated();
+        long start = System.nanoTime();
+        long sink = 0;
+        for (var t : table) {
+            sink += cached ? t.getWhenFormatted().length() + t.getAmountFormatted().length()
+                    : oldWhen(t).length() + oldAmount(t).length();
+        }
+        long elapsed = System.nanoTime() - start;
+        bytes = allocated() - bytes;
+        if (sink == 0) throw new IllegalStateException("Nothing was formatted");
+        return new long[] {elapsed, bytes};
+    }
+
+    // Transaction.getWhenFormatted as it was
+    private static String oldWhen(OnlineBankingApp.Transaction t) {
+        return t.getWhen().format(DateTimeFormatter.ofPattern("dd MMM yyyy, HH:mm"));
+    }
+
+    // Money.format as it was, with a builder per call
+    private static String oldAmount(OnlineBankingApp.Transaction t) {
+        long paise = t.getAmount();
+        var sb = new StringBuilder(24).append('₹');
+        if (paise < 0) sb.append('-');
+        long rupees = Math.abs(paise / 100), rem = Math.abs(paise % 100);
+        sb.append(rupees).append('.');
+        if (rem < 10) sb.append('0');
+        return sb.append(rem).toString();
+    }
+
+    private static long allocated() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().threadId());
+    }
+
+    private static void report(String what, int rows, long[] result) {
+        System.out.printf("%-42s %7.1f ms per %d rows, %6.0f ns/row, %5.0f bytes/row%n", what,
+                result[0] / 1e6, rows, (double) result[0] / rows, (double) result[1] / rows);
+    }
+}
@@ -0,0 +1,95 @@
+package com.example;
+import java.lang.ref.Reference;
+import java.math.BigDecimal;
+import java.util.*;
+import javafx.beans.property.*;
+import javafx.collections.FXCollections;
+
+// heap per account: the plain Account the core keeps now, the JavaFX-property Account it kept before
+// (reproduced below) in an ObservableList, and a whole BankService with its indexes. Run it without
+// JavaFX on the class path to see the core alone; the property version is then skipped.
+// Usage: java com.example.BankMemoryCheck [accounts]
+public class BankMemoryCheck {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        // the same strings for every variant, so only what each one adds is measured
+        var ids = new String[count];
+        var owners = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = "AC-" + (1_000_000 + i);
+            owners[i] = "owner-" + i / 10;
+        }
+
+        long base = usedHeap();
+        var plain = new ArrayList<OnlineBankingApp.Account>(count);
+        for (int i = 0; i < count; i++) {
+            plain.add(new OnlineBankingApp.Account(ids[i], owners[i], "Extra", "SAVINGS", 100_000));
+        }
+        report("plain Account in an ArrayList", usedHeap() - base, count);
+        Reference.reachabilityFence(plain);
+        plain = null;
+
+        if (hasJavaFx()) {
+            base = usedHeap();
+            var observable = FXCollections.<PropertyAccount>observableArrayList();
+            for (int i = 0; i < count; i++) {
+                observable.add(new PropertyAccount(ids[i], owners[i], "Extra", "SAVINGS", BigDecimal.valueOf(100_000, 2)));
+            }
+            report("JavaFX-property Account in an ObservableList (before)", usedHeap() - base, count);
+            Reference.reachabilityFence(observable);
+            observable = null;
+        } else {
+            System.out.println("JavaFX not on the class path: skipping the property-based Account");
+        }
+
+        base = usedHeap();
+        var bank = new OnlineBankingApp.BankService();
+        for (int i = 0; i < count; i++) {
+            bank.addAccount(new OnlineBankingApp.Account(ids[i], owners[i], "Extra", "SAVINGS", 100_000));
+        }
+        report("BankService with its owner, stripe and total indexes", usedHeap() - base, count);
+        // each variant must still be reachable while it is measured
+        Reference.reachabilityFence(bank);
+        Reference.reachabilityFence(ids);
+        Reference.reachabilityFence(owners);
+    }
+
+    private static boolean hasJavaFx() {
+        try {
+            Class.forName("javafx.beans.property.SimpleStringProperty");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static void report(String what, long bytes, int count) {
+        System.out.printf("%-55s %6.1f MB per %d accounts, %4d bytes each%n", what, bytes / 1e6, count, bytes / count);
+    }
+
+    // after a few full collections, so only live objects are counted
+    private static long usedHeap() throws InterruptedException {
+        var runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    // Account as the service kept it before the core was separated from JavaFX
+    private static final class PropertyAccount {
+        private final StringProperty id = new SimpleStringProperty();
+        private final StringProperty ownerUsername = new SimpleStringProperty();
+        private final StringProperty name = new SimpleStringProperty();
+        private final StringProperty type = new SimpleStringProperty();
+        private final ObjectProperty<BigDecimal> balance = new SimpleObjectProperty<>(BigDecimal.ZERO);
+
+        PropertyAccount(String id, String ownerUsername, String name, String type, BigDecimal balance) {
+            this.id.set(id); this.ownerUsername.set(ownerUsername); this.name.set(name); this.type.set(type); this.balance.set(balance);
+        }
+    }
+}
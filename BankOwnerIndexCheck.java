@@ -0,0 +1,80 @@
+package com.example;
+import java.util.*;
+import java.util.stream.Collectors;
+
+// checks that the owner index answers listAccounts and totalBalance the same as a scan over every
+// account, before and after accounts change hands, then times both at 1M accounts. The scan is what
+// the service did before the index: filter all accounts by owner, then sum their balances.
+// Usage: java com.example.BankOwnerIndexCheck [accounts] [lookups]
+public class BankOwnerIndexCheck {
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int extra = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        System.setProperty("bank.pbkdf2.iterations", "1000");
+        var bank = new OnlineBankingApp.BankService();
+        // ten accounts per owner, as in BankSnapshotCheck
+        for (int i = 0; i < extra; i++) {
+            bank.addAccount(new OnlineBankingApp.Account("AC-" + (1_000_000 + i), "owner-" + i / 10, "Extra", "SAVINGS", 100_000 + i));
+        }
+        String alice = bank.login("alice", "1234").getToken();
+
+        check(ids(bank.listAccounts(alice)).equals(ids(scan(bank, alice, "alice"))), "index lists alice's accounts like a scan");
+        check(bank.totalBalance(alice) == scanTotal(bank, alice, "alice"), "index total for alice matches a scan");
+        bank.changeOwner("AC-1000000", "alice");
+        bank.changeOwner("AC-11002", "owner-0");
+        check(ids(bank.listAccounts(alice)).equals(ids(scan(bank, alice, "alice"))), "index follows changeOwner");
+        check(bank.totalBalance(alice) == scanTotal(bank, alice, "alice"), "total follows changeOwner");
+        check(bank.totalOf("owner-0") == scanTotal(bank, alice, "owner-0"), "the previous owner's total follows changeOwner");
+        if (failures > 0) {
+            System.out.println("FAILED: " + failures + " check(s)");
+            System.exit(1);
+        }
+        System.out.println("Owner index checks OK");
+
+        // the same calls a sign-in and a top-bar refresh make: the user's accounts, then their total
+        long sink = 0;
+        for (int i = 0; i < 3; i++) sink += scanTotal(bank, alice, "alice") + scan(bank, alice, "alice").size();
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            sink += scan(bank, alice, "alice").size() + scanTotal(bank, alice, "alice");
+        }
+        double scanMicros = (System.nanoTime() - start) / 1e3 / lookups;
+
+        int indexed = lookups * 100_000;
+        for (int i = 0; i < indexed / 10; i++) sink += bank.listAccounts(alice).size() + bank.totalBalance(alice);
+        start = System.nanoTime();
+        for (int i = 0; i < indexed; i++) {
+            sink += bank.listAccounts(alice).size() + bank.totalBalance(alice);
+        }
+        double indexMicros = (System.nanoTime() - start) / 1e3 / indexed;
+        // using the results keeps either loop from being optimised away
+        if (sink == 0) throw new IllegalStateException("Nothing was looked up");
+        System.out.printf("%d accounts: full scan %.0f us per sign-in, owner index %.3f us, %.0fx%n",
+                extra + 4, scanMicros, indexMicros, scanMicros / indexMicros);
+    }
+
+    private static List<OnlineBankingApp.Account> scan(OnlineBankingApp.BankService bank, String token, String owner) {
+        return bank.listAllPayableAccounts(token).stream()
+                .filter(a -> owner.equals(a.getOwnerUsername()))
+                .collect(Collectors.toList());
+    }
+
+    private static long scanTotal(OnlineBankingApp.BankService bank, String token, String owner) {
+        long total = 0;
+        for (var a : scan(bank, token, owner)) total += a.getBalance();
+        return total;
+    }
+
+    private static Set<String> ids(List<OnlineBankingApp.Account> accounts) {
+        var ids = new HashSet<String>();
+        for (var a : accounts) ids.add(a.getId());
+        return ids;
+    }
+
+    private static void check(boolean ok, String what) {
+        System.out.println((ok ? "ok      " : "FAILED  ") + what);
+        if (!ok) failures++;
+    }
+}
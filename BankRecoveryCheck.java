@@ -0,0 +1,204 @@
+package com.example;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// crash-recovery check for the journal and snapshots: restarts a BankService over the files a previous
+// instance left behind without closing it, and checks that balances and history come back after a plain
+// crash, a torn record at the tail, a snapshot, snapshots taken during transfers and a damaged snapshot, and that a failed journal write
+// stops the service instead of leaving an unjournaled transfer in memory. Also prints durable transfers/s.
+// Usage: java com.example.BankRecoveryCheck [transfers] [group commit window in microseconds]
+public class BankRecoveryCheck {
+    private static final String[] ACCOUNTS = {"AC-11001", "AC-11002", "AC-22001", "AC-22002"};
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int transfers = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        long window = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        // logins are not what is being checked here
+        System.setProperty("bank.pbkdf2.iterations", "1000");
+        Path journal = Files.createTempFile("bank-recovery", ".log");
+        Files.delete(journal);
+        Path snapshot = journal.resolveSibling(journal.getFileName() + ".snap");
+
+        var bank = open(journal, window);
+        long start = System.nanoTime();
+        hammer(bank, transfers);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d durable transfers from 64 threads, %d us window: %.0f transfers/s%n", transfers, window, transfers / seconds);
+        var state = State.of(bank);
+
+        // crash: nothing is closed, so only what reached the journal survives
+        bank = open(journal, window);
+        check(State.of(bank).equals(state), "plain crash: everything comes back from the journal");
+
+        long intact = Files.size(journal);
+        try (var ch = FileChannel.open(journal, StandardOpenOption.APPEND)) {
+            // a header promising 40 bytes followed by only three of them, as a crash mid-write leaves it
+            ch.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 40, 0, 0, 0, 0, 1, 2, 3}));
+        }
+        bank = open(journal, window);
+        check(State.of(bank).equals(state), "torn tail: the intact records are all replayed");
+        check(Files.size(journal) == intact, "torn tail: the partial record is cut off");
+        transfer(bank, "AC-11001", "AC-22001", 1);
+        state = State.of(bank);
+        bank = open(journal, window);
+        check(State.of(bank).equals(state), "torn tail: a transfer after recovery lands where the tail was");
+
+        bank.snapshot();
+        hammer(bank, transfers / 10);
+        state = State.of(bank);
+        bank = open(journal, window);
+        awaitOlderHistory(bank);
+        check(State.of(bank).equals(state), "snapshot: balances from the snapshot plus the replayed tail");
+
+        // snapshots taken while transfers run copy each stripe at a different moment, so a transfer
+        // can be in one account's copy and not the other's; replay has to settle each side on its own
+        var busy = bank;
+        // accounts that exist only in this instance make each copy long enough for transfers to land
+        // in the middle of it; a restart ignores them, since the journal never mentions them
+        for (int i = 0; i < 200_000; i++) {
+            busy.addAccount(new OnlineBankingApp.Account("AC-F" + i, "filler-" + i, "Filler", "SAVINGS", 0));
+        }
+        // stopped by a flag rather than an interrupt, which would close the snapshot file under it
+        var stop = new AtomicBoolean();
+        var snapshotter = new Thread(() -> {
+            try {
+                while (!stop.get()) busy.snapshot();
+            } catch (Exception e) {
+                System.out.println("Snapshot failed: " + e);
+            }
+        });
+        snapshotter.start();
+        hammer(busy, transfers / 5);
+        stop.set(true);
+        snapshotter.join();
+        state = State.of(bank);
+        bank = open(journal, window);
+        awaitOlderHistory(bank);
+        check(State.of(bank).equals(state), "snapshots during transfers: balances and history come back exactly");
+
+        try (var ch = FileChannel.open(snapshot, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.wrap(new byte[] {(byte) 0xFF}), ch.size() / 2);
+        }
+        bank = open(journal, window);
+        check(State.of(bank).equals(state), "damaged snapshot: falls back to replaying the whole journal");
+
+        journalFailure(journal);
+
+        Files.deleteIfExists(snapshot);
+        Files.deleteIfExists(journal);
+        if (failures > 0) {
+            System.out.println("FAILED: " + failures + " check(s)");
+            System.exit(1);
+        }
+        System.out.println("OK");
+        System.exit(0);
+    }
+
+    // a write error after a transfer has moved the balances in memory: the service must stop serving
+    // them, and a restart must come back without that transfer
+    private static void journalFailure(Path journal) throws Exception {
+        // a long window holds the record in the queue while the writer is made to fail
+        var bank = open(journal, 500_000);
+        var state = State.of(bank);
+        String alice = bank.login("alice", "1234").getToken();
+        var pool = Executors.newSingleThreadExecutor();
+        var pending = pool.submit(() -> bank.transfer(alice, "AC-11001", "AC-22001", 100, "never journaled"));
+        Thread.sleep(100);
+        // interrupting the writer closes its channel, standing in for a disk error; earlier instances'
+        // writers are idle and abandoned, so failing them too changes nothing
+        for (var t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().equals("bank-journal")) t.interrupt();
+        }
+        try {
+            pending.get();
+            check(false, "journal failure: the transfer reports the failed write");
+        } catch (ExecutionException e) {
+            check(e.getCause() instanceof UncheckedIOException, "journal failure: the transfer reports the failed write");
+        }
+        pool.shutdown();
+        check(refuses(() -> bank.listAccounts(alice)), "journal failure: balances are no longer served");
+        check(refuses(() -> bank.historyCount(alice)), "journal failure: history is no longer served");
+        check(refuses(() -> bank.transfer(alice, "AC-11001", "AC-22001", 100, "after failure")), "journal failure: no further transfers");
+        check(State.of(open(journal, 1000)).equals(state), "journal failure: a restart comes back without the transfer");
+    }
+
+    private static boolean refuses(Runnable call) {
+        try {
+            call.run();
+            return false;
+        } catch (UncheckedIOException expected) {
+            return true;
+        }
+    }
+
+    private static OnlineBankingApp.BankService open(Path journal, long window) throws Exception {
+        return new OnlineBankingApp.BankService(new OnlineBankingApp.Journal(journal, window), 3600);
+    }
+
+    // every transfer waits for its group commit, so many threads are needed to fill a window
+    private static void hammer(OnlineBankingApp.BankService bank, int transfers) throws Exception {
+        String alice = bank.login("alice", "1234").getToken();
+        String bob = bank.login("bob", "1234").getToken();
+        var pool = Executors.newFixedThreadPool(64);
+        var done = new ArrayList<Future<?>>();
+        for (int i = 0; i < transfers; i++) {
+            int from = i % ACCOUNTS.length;
+            int to = (from + 1) % ACCOUNTS.length;
+            done.add(pool.submit(() -> {
+                try {
+                    bank.transfer(from < 2 ? alice : bob, ACCOUNTS[from], ACCOUNTS[to], 100, "recovery");
+                } catch (IllegalArgumentException e) {
+                    // an account ran dry; refused transfers are never journaled
+                }
+            }));
+        }
+        for (var f : done) {
+            f.get();
+        }
+        pool.shutdown();
+    }
+
+    private static void transfer(OnlineBankingApp.BankService bank, String from, String to, long amount) {
+        bank.transfer(bank.login(from.startsWith("AC-1") ? "alice" : "bob", "1234").getToken(), from, to, amount, "after recovery");
+    }
+
+    // history from before the snapshot is merged in the background; its event says when it is done
+    private static void awaitOlderHistory(OnlineBankingApp.BankService bank) throws Exception {
+        var loaded = new CountDownLatch(1);
+        bank.addListener(new OnlineBankingApp.BankListener() {
+            @Override
+            public void onTransfer(OnlineBankingApp.Transaction t, OnlineBankingApp.Account from, OnlineBankingApp.Account to) {}
+
+            @Override
+            public void onHistoryLoaded(Set<String> usernames) {
+                loaded.countDown();
+            }
+        });
+        // it may have finished before the listener was added; then the counts are already complete
+        if (!loaded.await(5, TimeUnit.SECONDS)) System.out.println("(older history was loaded before the listener)");
+    }
+
+    private static void check(boolean ok, String what) {
+        System.out.println((ok ? "ok      " : "FAILED  ") + what);
+        if (!ok) failures++;
+    }
+
+    // balances of the four sample accounts and how many history entries each user has
+    private record State(Map<String, Long> balances, int aliceHistory, int bobHistory) {
+        static State of(OnlineBankingApp.BankService bank) {
+            String alice = bank.login("alice", "1234").getToken();
+            String bob = bank.login("bob", "1234").getToken();
+            var balances = new TreeMap<String, Long>();
+            for (var token : new String[] {alice, bob}) {
+                for (var a : bank.listAccounts(token)) balances.put(a.getId(), a.getBalance());
+            }
+            return new State(balances, bank.historyCount(alice), bank.historyCount(bob));
+        }
+    }
+}
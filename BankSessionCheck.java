@@ -0,0 +1,130 @@
+package com.example;
+import java.util.*;
+import java.util.concurrent.*;
+
+// checks that BankService resolves every per-user call through the session token and refuses to pay
+// from someone else's account, then compares a full password login with a token lookup.
+// Usage: java com.example.BankSessionCheck [lookups per thread]
+public class BankSessionCheck {
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        // short enough to watch a session expire
+        System.setProperty("bank.session.ttl-s", "1");
+        var bank = new OnlineBankingApp.BankService();
+
+        var alice = bank.login("alice", "1234");
+        var bob = bank.login("bob", "1234");
+        check(alice != null && bob != null, "seeded users can sign in");
+        check(bank.login("alice", "wrong") == null, "wrong password is refused");
+        check(ids(bank.listAccounts(alice.getToken())).equals(Set.of("AC-11001", "AC-11002")), "listAccounts is the session user's");
+        check(bank.historyCount(bob.getToken()) == 1, "bob sees only the transfer that touched him");
+
+        long bobBalance = bank.totalBalance(bob.getToken());
+        refused(() -> bank.transfer(alice.getToken(), "AC-22001", "AC-11001", 100, "not mine"), "transfer from another user's account");
+        check(bank.totalBalance(bob.getToken()) == bobBalance, "refused transfer moved nothing");
+        bank.transfer(alice.getToken(), "AC-11001", "AC-22001", 100, "mine");
+        check(bank.totalBalance(bob.getToken()) == bobBalance + 100, "own account can pay anyone");
+
+        var batch = List.of(
+                new OnlineBankingApp.TransferRequest("AC-11002", "AC-22002", 50, "ok"),
+                new OnlineBankingApp.TransferRequest("AC-22002", "AC-11002", 50, "not mine"));
+        var result = bank.transferBatch(alice.getToken(), batch, false);
+        check(result.isCommitted(0) && !result.isCommitted(1), "batch refuses only the foreign item");
+        refused(() -> bank.transferBatch(alice.getToken(), batch, true), "atomic batch with a foreign item");
+        refused(() -> bank.historyFor(alice.getToken(), "AC-22001", OnlineBankingApp.HistoryPage.NEWEST, 10), "another user's account history");
+
+        expired(() -> bank.listAccounts("no-such-token"), "unknown token");
+        var second = bank.login("alice", "1234");
+        bank.changePassword(alice.getToken(), "5678");
+        check(bank.userFor(alice.getToken()) != null, "password change keeps the session that made it");
+        check(bank.userFor(second.getToken()) == null, "password change signs out other sessions");
+        bank.logout(alice.getToken());
+        expired(() -> bank.historyCount(alice.getToken()), "logged-out token");
+        Thread.sleep(1200);
+        expired(() -> bank.searchHistory(bob.getToken(), "rent", 10), "token idle past its TTL");
+        if (failures > 0) {
+            System.out.println("FAILED: " + failures + " check(s)");
+            System.exit(1);
+        }
+        System.out.println("Session checks OK");
+
+        benchmark(bank, lookups);
+    }
+
+    // one password hash per login against a map lookup per token, with the cache's own hit and miss counts
+    private static void benchmark(OnlineBankingApp.BankService bank, int lookups) throws Exception {
+        int logins = 5;
+        long start = System.nanoTime();
+        OnlineBankingApp.Session session = null;
+        for (int i = 0; i < logins; i++) {
+            session = bank.login("bob", "1234");
+        }
+        double loginMs = (System.nanoTime() - start) / 1e6 / logins;
+        String token = session.getToken();
+
+        long hitsBefore = bank.getSessions().getHits();
+        long missesBefore = bank.getSessions().getMisses();
+        int threads = Runtime.getRuntime().availableProcessors();
+        var pool = Executors.newFixedThreadPool(threads);
+        var tasks = new ArrayList<Callable<Void>>();
+        for (int t = 0; t < threads; t++) {
+            tasks.add(() -> {
+                for (int i = 0; i < lookups; i++) {
+                    // one miss in a hundred, like a stale tab or an expired session
+                    bank.userFor(i % 100 == 0 ? "stale-" + i : token);
+                }
+                return null;
+            });
+        }
+        start = System.nanoTime();
+        for (var f : pool.invokeAll(tasks)) {
+            f.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        long total = (long) threads * lookups;
+        System.out.printf("login (password hash): %.1f ms each%n", loginMs);
+        System.out.printf("token lookup: %d on %d threads, %.0f ns each, %.1fM/s; hits %d, misses %d%n",
+                total, threads, (double) elapsed * threads / total, total / (elapsed / 1e3),
+                bank.getSessions().getHits() - hitsBefore, bank.getSessions().getMisses() - missesBefore);
+
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            bank.listAccounts(token);
+        }
+        System.out.printf("listAccounts by token: %.0f ns each%n", (double) (System.nanoTime() - start) / lookups);
+    }
+
+    private static Set<String> ids(List<OnlineBankingApp.Account> accounts) {
+        var ids = new HashSet<String>();
+        for (var a : accounts) ids.add(a.getId());
+        return ids;
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) {
+            System.out.println("FAILED: " + what);
+            failures++;
+        }
+    }
+
+    private static void refused(Runnable call, String what) {
+        try {
+            call.run();
+            check(false, what + " is refused");
+        } catch (IllegalArgumentException expected) {
+            // the service names the problem; nothing was applied
+        }
+    }
+
+    private static void expired(Runnable call, String what) {
+        try {
+            call.run();
+            check(false, what + " is treated as signed out");
+        } catch (IllegalStateException expected) {
+            // "Session expired, please sign in again"
+        }
+    }
+}
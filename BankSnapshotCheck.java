@@ -0,0 +1,95 @@
+package com.example;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// measures how long BankService.snapshot() holds up transfers once there are many accounts: opens the
+// extra accounts, keeps transfers running between the sample accounts, snapshots at an interval, and
+// compares transfer latency while a snapshot is copying with the latency outside one.
+// Usage: java com.example.BankSnapshotCheck [accounts] [seconds]
+public class BankSnapshotCheck {
+    private static final String[] ACCOUNTS = {"AC-11001", "AC-11002", "AC-22001", "AC-22002"};
+    private static final int THREADS = 4;
+
+    public static void main(String[] args) throws Exception {
+        int extra = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        System.setProperty("bank.pbkdf2.iterations", "1000");
+        Path journal = Files.createTempFile("bank-snapshot", ".log");
+        Files.delete(journal);
+        Path snapshot = journal.resolveSibling(journal.getFileName() + ".snap");
+
+        var bank = new OnlineBankingApp.BankService(new OnlineBankingApp.Journal(journal, 1000), 3600);
+        // ten accounts per owner, about what a real customer base looks like
+        for (int i = 0; i < extra; i++) {
+            bank.addAccount(new OnlineBankingApp.Account("AC-" + (1_000_000 + i), "owner-" + i / 10, "Extra", "SAVINGS", 100_000));
+        }
+        String alice = bank.login("alice", "1234").getToken();
+        String bob = bank.login("bob", "1234").getToken();
+
+        var snapshotting = new AtomicBoolean();
+        var stop = new AtomicBoolean();
+        // transfer latencies in microseconds, split by whether a snapshot was copying when they started
+        var during = new ConcurrentLinkedQueue<Long>();
+        var outside = new ConcurrentLinkedQueue<Long>();
+        var pool = Executors.newFixedThreadPool(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            pool.submit(() -> {
+                var random = ThreadLocalRandom.current();
+                while (!stop.get()) {
+                    int from = random.nextInt(ACCOUNTS.length);
+                    int to = (from + 1 + random.nextInt(ACCOUNTS.length - 1)) % ACCOUNTS.length;
+                    boolean busy = snapshotting.get();
+                    long start = System.nanoTime();
+                    try {
+                        bank.transfer(from < 2 ? alice : bob, ACCOUNTS[from], ACCOUNTS[to], 100, "snapshot load");
+                    } catch (IllegalArgumentException e) {
+                        // an account ran dry
+                    }
+                    long micros = (System.nanoTime() - start) / 1000;
+                    (busy || snapshotting.get() ? during : outside).add(micros);
+                }
+                return null;
+            });
+        }
+
+        var snapshotMillis = new ArrayList<Long>();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        while (System.nanoTime() < end) {
+            Thread.sleep(500);
+            snapshotting.set(true);
+            long start = System.nanoTime();
+            bank.snapshot();
+            snapshotMillis.add((System.nanoTime() - start) / 1_000_000);
+            snapshotting.set(false);
+        }
+        stop.set(true);
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+
+        System.out.printf("%d accounts, %d snapshots of %s ms (%d bytes)%n",
+                extra + ACCOUNTS.length, snapshotMillis.size(), snapshotMillis, Files.size(snapshot));
+        System.out.println("transfers outside a snapshot: " + summary(outside));
+        System.out.println("transfers during a snapshot:  " + summary(during));
+        // a stop-the-world collection shows up in either list; this says how much of a maximum it explains
+        long gcCount = 0, gcMillis = 0;
+        for (var gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += gc.getCollectionCount();
+            gcMillis += gc.getCollectionTime();
+        }
+        System.out.printf("GC: %d collections, %d ms in total%n", gcCount, gcMillis);
+        Files.deleteIfExists(snapshot);
+        Files.deleteIfExists(journal);
+        System.exit(0);
+    }
+
+    private static String summary(Collection<Long> micros) {
+        if (micros.isEmpty()) return "none";
+        long[] values = micros.stream().mapToLong(Long::longValue).sorted().toArray();
+        return String.format("%d, p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms", values.length,
+                values[values.length / 2] / 1000.0, values[(int) (values.length * 0.99)] / 1000.0,
+                values[(int) (values.length * 0.999)] / 1000.0, values[values.length - 1] / 1000.0);
+    }
+}
@@ -0,0 +1,95 @@
+package com.example;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// hammers BankService.transfer from 1, 4 and 16 threads between the four sample accounts and checks
+// that money is conserved, per-user totals match the balances and every account's history is complete
+// and in order; prints transfers per second for each thread count.
+// Usage: java com.example.BankStressCheck [transfers per run]
+public class BankStressCheck {
+    private static final String[] ACCOUNTS = {"AC-11001", "AC-11002", "AC-22001", "AC-22002"};
+    private static final int[] THREADS = {1, 4, 16};
+
+    public static void main(String[] args) throws Exception {
+        int transfers = args.length > 0 ? Integer.parseInt(args[0]) : 400_000;
+        int failures = 0;
+        for (int threads : THREADS) {
+            String problem = run(threads, transfers);
+            if (problem != null) {
+                System.out.println("FAILED with " + threads + " threads: " + problem);
+                failures++;
+            }
+        }
+        if (failures > 0) System.exit(1);
+        System.out.println("OK");
+    }
+
+    // a fresh service per run, so every thread count starts from the same balances
+    private static String run(int threads, int transfers) throws Exception {
+        var bank = new OnlineBankingApp.BankService();
+        // tokens are shared by every thread; the sample accounts belong to alice (AC-1x) and bob (AC-2x)
+        String alice = bank.login("alice", "1234").getToken();
+        String bob = bank.login("bob", "1234").getToken();
+        long before = bank.totalBalance(alice) + bank.totalBalance(bob);
+        int seeded = history(bank, alice, bob);
+
+        var done = new LongAdder();
+        var refused = new LongAdder();
+        var pool = Executors.newFixedThreadPool(threads);
+        var tasks = new ArrayList<Callable<Void>>();
+        for (int t = 0; t < threads; t++) {
+            int share = transfers / threads + (t < transfers % threads ? 1 : 0);
+            tasks.add(() -> {
+                var random = ThreadLocalRandom.current();
+                for (int i = 0; i < share; i++) {
+                    int from = random.nextInt(ACCOUNTS.length);
+                    int to = (from + 1 + random.nextInt(ACCOUNTS.length - 1)) % ACCOUNTS.length;
+                    try {
+                        // up to ₹50 at a time, so some transfers run an account dry and are refused
+                        bank.transfer(from < 2 ? alice : bob, ACCOUNTS[from], ACCOUNTS[to], random.nextInt(1, 5000) * 100L, "stress");
+                        done.increment();
+                    } catch (IllegalArgumentException e) {
+                        refused.increment();
+                    }
+                }
+                return null;
+            });
+        }
+        long start = System.nanoTime();
+        for (var f : pool.invokeAll(tasks)) {
+            f.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        System.out.printf("%2d threads: %d transfers (%d refused) in %d ms, %.0f transfers/s%n",
+                threads, done.sum(), refused.sum(), elapsed / 1_000_000, transfers / (elapsed / 1e9));
+
+        long after = bank.totalBalance(alice) + bank.totalBalance(bob);
+        if (after != before) return "money not conserved: " + before + " -> " + after;
+        for (var token : new String[] {alice, bob}) {
+            long sum = 0;
+            for (var a : bank.listAccounts(token)) sum += a.getBalance();
+            if (sum != bank.totalBalance(token)) return "running total " + bank.totalBalance(token) + " but balances sum to " + sum;
+        }
+        // each transfer shows up once in the history of both accounts it touched
+        int entries = history(bank, alice, bob);
+        if (entries - seeded != 2 * done.sum()) return (entries - seeded) + " history entries for " + done.sum() + " transfers";
+        return null;
+    }
+
+    // total history entries over the four accounts; fails the run if any account's history is out of order
+    private static int history(OnlineBankingApp.BankService bank, String alice, String bob) {
+        int entries = 0;
+        for (int i = 0; i < ACCOUNTS.length; i++) {
+            var items = bank.historyFor(i < 2 ? alice : bob, ACCOUNTS[i], OnlineBankingApp.HistoryPage.NEWEST, Integer.MAX_VALUE).getItems();
+            for (int j = 1; j < items.size(); j++) {
+                if (items.get(j - 1).getSeq() <= items.get(j).getSeq()) {
+                    throw new IllegalStateException(ACCOUNTS[i] + " history out of order at " + j);
+                }
+            }
+            entries += items.size();
+        }
+        return entries;
+    }
+}
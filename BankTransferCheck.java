@@ -0,0 +1,97 @@
+package com.example;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+// times BankService.transfer on one thread and counts the bytes it allocates per call, then does the
+// same for the ledger arithmetic alone, in long paise as the service keeps it and in BigDecimal as it
+// kept it before: check funds, debit, credit, and format both balances for display.
+// Usage: java com.example.BankTransferCheck [transfers] [rounds]
+public class BankTransferCheck {
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int transfers = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        System.setProperty("bank.pbkdf2.iterations", "1000");
+        var bank = new OnlineBankingApp.BankService();
+        String alice = bank.login("alice", "1234").getToken();
+        String bob = bank.login("bob", "1234").getToken();
+
+        // the last round of each is reported, once the earlier ones have compiled it
+        for (int round = 1; round <= rounds; round++) {
+            long bytes = allocated();
+            long start = System.nanoTime();
+            for (int i = 0; i < transfers; i++) {
+                // back and forth, so neither account runs dry
+                if ((i & 1) == 0) bank.transfer(alice, "AC-11001", "AC-22001", 100, "check");
+                else bank.transfer(bob, "AC-22001", "AC-11001", 100, "check");
+            }
+            long elapsed = System.nanoTime() - start;
+            bytes = allocated() - bytes;
+            if (round == rounds) report("BankService.transfer", transfers, elapsed, bytes);
+        }
+
+        int ops = transfers * 10;
+        for (int round = 1; round <= rounds; round++) {
+            long bytes = allocated();
+            long start = System.nanoTime();
+            long sink = paise(ops);
+            long elapsed = System.nanoTime() - start;
+            bytes = allocated() - bytes;
+            if (round == rounds) report("ledger step in long paise", ops, elapsed, bytes);
+            if (sink == 0) throw new IllegalStateException("Nothing was formatted");
+        }
+        for (int round = 1; round <= rounds; round++) {
+            long bytes = allocated();
+            long start = System.nanoTime();
+            long sink = decimals(ops);
+            long elapsed = System.nanoTime() - start;
+            bytes = allocated() - bytes;
+            if (round == rounds) report("ledger step in BigDecimal (before)", ops, elapsed, bytes);
+            if (sink == 0) throw new IllegalStateException("Nothing was formatted");
+        }
+    }
+
+    private static long paise(int ops) {
+        long from = 2_500_000, to = 1_000_000, amount = 100, sink = 0;
+        for (int i = 0; i < ops; i++) {
+            if (from < amount) throw new IllegalArgumentException("Insufficient funds");
+            long fromBalance = from - amount;
+            long toBalance = Math.addExact(to, amount);
+            // swapped each time, so the money goes back and forth like the transfers above
+            from = toBalance;
+            to = fromBalance;
+            sink += OnlineBankingApp.Money.format(from).length() + OnlineBankingApp.Money.format(to).length();
+        }
+        return sink;
+    }
+
+    private static long decimals(int ops) {
+        BigDecimal from = new BigDecimal("25000.00"), to = new BigDecimal("10000.00"), amount = new BigDecimal("1.00");
+        long sink = 0;
+        for (int i = 0; i < ops; i++) {
+            if (from.compareTo(amount) < 0) throw new IllegalArgumentException("Insufficient funds");
+            BigDecimal fromBalance = from.subtract(amount);
+            BigDecimal toBalance = to.add(amount);
+            from = toBalance;
+            to = fromBalance;
+            sink += format(from).length() + format(to).length();
+        }
+        return sink;
+    }
+
+    // Money.format as it was while balances were BigDecimal
+    private static String format(BigDecimal bd) {
+        return "₹" + bd.setScale(2, RoundingMode.HALF_UP).toPlainString();
+    }
+
+    private static long allocated() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().threadId());
+    }
+
+    private static void report(String what, int ops, long nanos, long bytes) {
+        System.out.printf("%-36s %7.0f ns/op, %6.2f M ops/s, %6.1f bytes/op, %7.1f MB/s allocated%n", what,
+                (double) nanos / ops, ops * 1e3 / nanos, (double) bytes / ops, bytes * 1e3 / nanos);
+    }
+}
@@ -7,14 +7,31 @@ import javafx.scene.layout.*;
 import javafx.stage.Stage;
 import java.io.*;
 import java.net.Socket;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 public class ChatClient extends Application {
     private PrintWriter out;
     private TextArea chatArea;
     private TextField inputField;
+    private TextField roomField;
+    // lines written within this window go out in one flush (--flush-window-ms=N, default 10)
+    private long flushWindowMs = 10;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final LongAdder sentLines = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread t = new Thread(task, "chat-flusher");
+        t.setDaemon(true);
+        return t;
+    });
 
     @Override
     public void start(Stage primaryStage) {
+        String window = getParameters().getNamed().get("flush-window-ms");
+        if (window != null) flushWindowMs = Long.parseLong(window);
+
         chatArea = new TextArea();
         chatArea.setEditable(false);
         inputField = new TextField();
@@ -22,8 +39,17 @@ public class ChatClient extends Application {
         Button sendButton = new Button("Send");
         sendButton.setOnAction(e -> sendMessage());
 
+        // room commands understood by the server: /join <room> and /leave <room>
+        roomField = new TextField();
+        roomField.setPromptText("Room");
+        Button joinButton = new Button("Join");
+        joinButton.setOnAction(e -> sendRoomCommand("/join"));
+        Button leaveButton = new Button("Leave");
+        leaveButton.setOnAction(e -> sendRoomCommand("/leave"));
+
+        HBox roomBox = new HBox(10, roomField, joinButton, leaveButton);
         HBox inputBox = new HBox(10, inputField, sendButton);
-        VBox root = new VBox(10, chatArea, inputBox);
+        VBox root = new VBox(10, roomBox, chatArea, inputBox);
         Scene scene = new Scene(root, 400, 300);
 
         primaryStage.setTitle("JavaFX Chat Client");
@@ -36,7 +62,9 @@ public class ChatClient extends Application {
     private void connectToServer(String host, int port) {
         new Thread(() -> {
             try (Socket socket = new Socket(host, port)) {
-                out = new PrintWriter(socket.getOutputStream(), true);
+                // flushing is batched in send(), so Nagle would only add delay
+                socket.setTcpNoDelay(true);
+                out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), false);
                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
 
                 String msg;
@@ -53,12 +81,44 @@ public class ChatClient extends Application {
     private void sendMessage() {
         String message = inputField.getText();
         if (out != null && !message.isEmpty()) {
-            out.println(message);
+            send(message);
             chatArea.appendText("Me: " + message + "\n");
             inputField.clear();
         }
     }
 
+    private void sendRoomCommand(String command) {
+        String room = roomField.getText().trim();
+        if (out != null && !room.isEmpty()) {
+            send(command + " " + room);
+        }
+    }
+
+    // queue a line; the first line of a burst schedules one flush for everything written in the window
+    private void send(String line) {
+        out.println(line);
+        sentLines.increment();
+        if (flushScheduled.compareAndSet(false, true)) {
+            flusher.schedule(this::flush, flushWindowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        out.flush();
+        flushes.increment();
+    }
+
+    @Override
+    public void stop() {
+        long lines = sentLines.sum();
+        long flushCount = flushes.sum();
+        if (flushCount > 0) {
+            System.out.printf("Sent %d lines in %d flushes (%d syscalls saved)%n", lines, flushCount, lines - flushCount);
+        }
+        flusher.shutdown();
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
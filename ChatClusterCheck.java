@@ -0,0 +1,216 @@
+package com.example;
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// three ChatServer nodes in one JVM with two text clients each; every client sends a numbered stream
+// at the same time and the check fails unless each stream reaches all other clients complete, once
+// and in order. Two senders per node race for relay sequence numbers on that node. The same six
+// clients then run against a single node, as a baseline for what the cluster costs or gains.
+// Usage: java com.example.ChatClusterCheck [messages per client]
+public class ChatClusterCheck {
+    private static final int NODES = 3;
+    private static final int CLIENTS = 6;
+    // each run below takes its own ports from here, ten apart: servers in this JVM are never stopped
+    private static final int CLIENT_PORT = 15100;
+    private static final int CLUSTER_PORT = 15200;
+    // unacknowledged lines a sender allows itself, well below a peer link's queue so nothing is shed
+    private static final int WINDOW = 1024;
+    private static final long TIMEOUT_MS = 60_000;
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        // a shorter round of each first, so neither measured run pays for compiling the server
+        run(NODES, 0, messages / 4, false);
+        run(1, 10, messages / 4, false);
+        double cluster = run(NODES, 20, messages, true);
+        double single = run(1, 30, messages, true);
+        System.out.printf("%d nodes deliver %.2fx the deliveries/s of one node under the same clients%n", NODES, cluster / single);
+        System.out.println("OK");
+        System.exit(0);
+    }
+
+    // starts nodeCount linked nodes with the clients spread evenly over them; returns deliveries/s
+    private static double run(int nodeCount, int portOffset, int messages, boolean report) throws Exception {
+        int clientPort = CLIENT_PORT + portOffset;
+        int clusterPort = CLUSTER_PORT + portOffset;
+        ChatServer[] nodes = new ChatServer[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            var options = new ArrayList<>(List.of("--virtual", "--port=" + (clientPort + i), "--slow-consumer=backpressure"));
+            if (nodeCount > 1) {
+                StringJoiner peers = new StringJoiner(",");
+                for (int j = 0; j < nodeCount; j++) {
+                    if (j != i) peers.add("localhost:" + (clusterPort + j));
+                }
+                options.addAll(List.of("--cluster-port=" + (clusterPort + i), "--peers=" + peers, "--node-id=" + i));
+            }
+            nodes[i] = new ChatServer(options.toArray(new String[0]));
+            Thread t = new Thread(nodes[i]::run, "node-" + clientPort + "-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        Client[] clients = new Client[CLIENTS];
+        for (int i = 0; i < CLIENTS; i++) {
+            clients[i] = new Client(i, clientPort + i / (CLIENTS / nodeCount));
+        }
+
+        // peer links retry once a second, so keep probing until every node has heard from every other
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!allProbed(clients)) {
+            if (System.currentTimeMillis() > deadline) fail("cluster never linked up");
+            for (Client client : clients) {
+                client.send("probe " + client.id);
+            }
+            Thread.sleep(100);
+        }
+
+        long start = System.nanoTime();
+        ExecutorService senders = Executors.newFixedThreadPool(CLIENTS);
+        List<Future<?>> sent = new ArrayList<>();
+        for (Client client : clients) {
+            sent.add(senders.submit(() -> {
+                client.sendStream(messages, clients);
+                return null;
+            }));
+        }
+        for (Future<?> f : sent) {
+            f.get();
+        }
+        senders.shutdown();
+        for (Client client : clients) {
+            client.awaitAll(messages, deadline);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long delivered = 0;
+        for (Client client : clients) {
+            for (int origin = 0; origin < CLIENTS; origin++) {
+                if (origin != client.id) delivered += client.received.get(origin);
+            }
+            if (client.error != null) fail("client " + client.id + ": " + client.error);
+        }
+        long expected = (long) CLIENTS * (CLIENTS - 1) * messages;
+        if (delivered != expected) fail("delivered " + delivered + " of " + expected);
+        long relayed = 0;
+        for (ChatServer node : nodes) {
+            relayed += node.metrics.relayedIn.sum();
+        }
+        for (Client client : clients) {
+            client.close();
+        }
+        double rate = delivered / (elapsed / 1e9);
+        if (report) System.out.printf("%d node(s), %d clients x %d messages: %d deliveries in order, %d relayed frames, %.0f deliveries/s%n",
+                nodeCount, CLIENTS, messages, delivered, relayed, rate);
+        return rate;
+    }
+
+    private static boolean allProbed(Client[] clients) {
+        for (Client client : clients) {
+            for (int origin = 0; origin < CLIENTS; origin++) {
+                if (origin != client.id && !client.probed.contains(origin)) return false;
+            }
+        }
+        return true;
+    }
+
+    private static void fail(String reason) {
+        System.out.println("FAILED: " + reason);
+        System.exit(1);
+    }
+
+    // a plain text client; its reader checks that each origin's sequence arrives without gaps or repeats
+    private static final class Client {
+        final int id;
+        final AtomicLongArray received = new AtomicLongArray(CLIENTS);
+        final Set<Integer> probed = ConcurrentHashMap.newKeySet();
+        volatile String error;
+        private final Socket socket;
+        private final PrintWriter out;
+
+        Client(int id, int port) throws IOException, InterruptedException {
+            this.id = id;
+            socket = connect(port);
+            out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)));
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Thread reader = new Thread(() -> read(in), "client-" + id);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private static Socket connect(int port) throws IOException, InterruptedException {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    return new Socket("localhost", port);
+                } catch (IOException e) {
+                    if (attempt == 50) throw e;
+                    Thread.sleep(100);
+                }
+            }
+        }
+
+        private void read(BufferedReader in) {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] parts = line.split(" ");
+                    if (parts.length != 2) continue;
+                    if (parts[0].equals("probe")) {
+                        probed.add(Integer.parseInt(parts[1]));
+                        continue;
+                    }
+                    int origin = Integer.parseInt(parts[0]);
+                    long seq = Long.parseLong(parts[1]);
+                    long next = received.get(origin);
+                    if (seq != next && error == null) {
+                        error = "from client " + origin + " expected " + next + " but got " + seq;
+                    }
+                    received.set(origin, seq + 1);
+                }
+            } catch (IOException | NumberFormatException e) {
+                error = "reader failed: " + e;
+            }
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+
+        void send(String line) {
+            out.println(line);
+            out.flush();
+        }
+
+        // numbered lines, never more than WINDOW ahead of the slowest other client
+        void sendStream(int messages, Client[] all) throws InterruptedException {
+            for (int seq = 0; seq < messages; seq++) {
+                while (seq - slowestReceiver(all) >= WINDOW) {
+                    out.flush();
+                    Thread.sleep(1);
+                }
+                out.println(id + " " + seq);
+                if (seq % 64 == 63) out.flush();
+            }
+            out.flush();
+        }
+
+        private long slowestReceiver(Client[] all) {
+            long slowest = Long.MAX_VALUE;
+            for (Client other : all) {
+                if (other != this) slowest = Math.min(slowest, other.received.get(id));
+            }
+            return slowest;
+        }
+
+        void awaitAll(int messages, long deadline) throws InterruptedException {
+            for (int origin = 0; origin < CLIENTS; origin++) {
+                while (origin != id && received.get(origin) < messages && error == null) {
+                    if (System.currentTimeMillis() > deadline) return;
+                    Thread.sleep(10);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example;
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+
+// checks that room history outlives the room's members on both engines: a client that connects after
+// everyone else has left still gets the lobby's replay, an emptied room keeps its history, and only the
+// rooms past --idle-rooms that emptied longest ago lose theirs.
+// Usage: java com.example.ChatHistoryCheck
+public class ChatHistoryCheck {
+    private static final int PORT = 15400;
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        run("blocking", PORT, "--virtual");
+        run("nio", PORT + 1, "--nio");
+        if (failures > 0) {
+            System.out.println("FAILED: " + failures + " check(s)");
+            System.exit(1);
+        }
+        System.out.println("OK");
+        System.exit(0);
+    }
+
+    private static void run(String engine, int port, String mode) throws Exception {
+        ChatServer server = new ChatServer(new String[] {mode, "--port=" + port, "--idle-rooms=1"});
+        Thread t = new Thread(server::run, "server-" + port);
+        t.setDaemon(true);
+        t.start();
+        Thread.sleep(200);
+
+        // the only client: leaves r1, then r2, then the lobby by disconnecting
+        try (Client first = new Client(port)) {
+            first.send("hello lobby");
+            first.send("/join r1");
+            first.send("in r1");
+            first.send("/leave r1");
+            first.send("/join r2");
+            first.send("in r2");
+            first.send("/leave r2");
+            check(first.readUntil("* left r2"), engine + ": first client's commands went through");
+        }
+        Thread.sleep(200);
+
+        try (Client later = new Client(port)) {
+            check("hello lobby".equals(later.read()), engine + ": the lobby replays to a client who connects after everyone left");
+            later.send("/join r2");
+            check("[r2] in r2".equals(later.read()), engine + ": an emptied room keeps its history");
+            check("* joined r2".equals(later.read()), engine + ": joined r2");
+            later.send("/join r1");
+            check("* joined r1".equals(later.read()), engine + ": with --idle-rooms=1 the room that emptied first is dropped");
+        }
+    }
+
+    private static void check(boolean ok, String what) {
+        System.out.println((ok ? "ok      " : "FAILED  ") + what);
+        if (!ok) failures++;
+    }
+
+    private static final class Client implements Closeable {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final PrintWriter out;
+
+        Client(int port) throws IOException, InterruptedException {
+            socket = new Socket("localhost", port);
+            socket.setSoTimeout(5000);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            // silent through negotiation, so the server takes it for a text client and joins it to the lobby
+            Thread.sleep(500);
+        }
+
+        void send(String line) {
+            out.println(line);
+        }
+
+        // next line, or null if none arrives in time
+        String read() throws IOException {
+            try {
+                return in.readLine();
+            } catch (SocketTimeoutException e) {
+                return null;
+            }
+        }
+
+        boolean readUntil(String expected) throws IOException {
+            String line;
+            while ((line = read()) != null) {
+                if (line.equals(expected)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.example;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// load generator for ChatServer: holds many idle connections open while a few senders keep a steady
+// message rate into the lobby, and reports delivery latency once a second as seen by one listener.
+// Usage: java com.example.ChatLoadClient [--host=localhost] [--port=5000] [--idle=10000]
+//        [--senders=4] [--rate=1000] [--duration-s=30]
+// Each idle connection is one file descriptor here and one on the server; raise ulimit -n to match.
+public class ChatLoadClient {
+    private static final LongAdder sent = new LongAdder();
+    private static final LongAdder received = new LongAdder();
+    // latencies seen by the listener since the last report, in microseconds
+    private static final List<Long> latencies = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        InetSocketAddress server = new InetSocketAddress(option(args, "--host", "localhost"),
+                Integer.parseInt(option(args, "--port", "5000")));
+        int idle = Integer.parseInt(option(args, "--idle", "10000"));
+        int senders = Integer.parseInt(option(args, "--senders", "4"));
+        int rate = Integer.parseInt(option(args, "--rate", "1000"));
+        long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(option(args, "--duration-s", "30")));
+
+        List<SocketChannel> idleConnections = openIdle(server, idle);
+        System.out.println(idleConnections.size() + " idle connections open");
+
+        Socket listener = new Socket(server.getAddress(), server.getPort());
+        daemon("listener", () -> listen(listener));
+        List<Thread> senderThreads = new ArrayList<>();
+        long end = System.nanoTime() + duration;
+        for (int i = 0; i < senders; i++) {
+            Socket socket = new Socket(server.getAddress(), server.getPort());
+            // senders hear each other too; drain that so their outboxes never fill on the server
+            daemon("drain-" + i, () -> drain(socket));
+            Thread t = new Thread(() -> send(socket, (double) rate / senders, end), "sender-" + i);
+            senderThreads.add(t);
+        }
+        // let the text connections get through protocol negotiation and into the lobby
+        Thread.sleep(500);
+        for (Thread t : senderThreads) {
+            t.start();
+        }
+        long lastSent = 0;
+        long lastReceived = 0;
+        while (System.nanoTime() < end) {
+            Thread.sleep(1000);
+            long s = sent.sum();
+            long r = received.sum();
+            System.out.printf("sent %d/s, received %d/s, %s, idle open %d%n",
+                    s - lastSent, r - lastReceived, drainLatencies(), countOpen(idleConnections));
+            lastSent = s;
+            lastReceived = r;
+        }
+        for (Thread t : senderThreads) {
+            t.join();
+        }
+        Thread.sleep(1000);
+        System.out.printf("total: sent %d, received %d by the listener%n", sent.sum(), received.sum());
+        System.exit(0);
+    }
+
+    // value of a --name=value argument, or the fallback when it is absent
+    private static String option(String[] args, String name, String fallback) {
+        for (String arg : args) {
+            if (arg.startsWith(name + "=")) {
+                return arg.substring(name.length() + 1);
+            }
+        }
+        return fallback;
+    }
+
+    private static void daemon(String name, Runnable task) {
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // connections that leave the lobby right away, so they cost the server a socket but no deliveries
+    private static List<SocketChannel> openIdle(InetSocketAddress server, int count) throws InterruptedException {
+        List<SocketChannel> open = new ArrayList<>(count);
+        byte[] leave = "/leave lobby\n".getBytes(StandardCharsets.UTF_8);
+        int failures = 0;
+        while (open.size() < count) {
+            try {
+                SocketChannel channel = SocketChannel.open(server);
+                channel.write(ByteBuffer.wrap(leave));
+                open.add(channel);
+                if (open.size() % 1000 == 0) System.out.println(open.size() + " connected");
+            } catch (IOException e) {
+                // a full accept backlog refuses or times out; back off and retry
+                if (++failures % 100 == 0) System.out.println(failures + " connect failures: " + e.getMessage());
+                Thread.sleep(10);
+            }
+        }
+        return open;
+    }
+
+    private static int countOpen(List<SocketChannel> connections) {
+        int open = 0;
+        for (SocketChannel channel : connections) {
+            if (channel.isOpen()) open++;
+        }
+        return open;
+    }
+
+    // paces lines at a fixed rate; each line is the send time, so the listener can compute latency
+    private static void send(Socket socket, double perSecond, long end) {
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            long interval = (long) (1e9 / perSecond);
+            long next = System.nanoTime();
+            while (next < end) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                out.write(System.nanoTime() + "\n");
+                out.flush();
+                sent.increment();
+                next += interval;
+            }
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Sender stopped: " + e);
+        }
+    }
+
+    private static void listen(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty() || !Character.isDigit(line.charAt(0))) continue;
+                long micros = (System.nanoTime() - Long.parseLong(line)) / 1000;
+                received.increment();
+                synchronized (latencies) {
+                    latencies.add(micros);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Listener stopped: " + e);
+        }
+    }
+
+    private static void drain(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            byte[] buf = new byte[8192];
+            while (in.read(buf) >= 0) {
+                // discard
+            }
+        } catch (IOException e) {
+            // socket closed at exit
+        }
+    }
+
+    private static String drainLatencies() {
+        long[] values;
+        synchronized (latencies) {
+            values = latencies.stream().mapToLong(Long::longValue).toArray();
+            latencies.clear();
+        }
+        if (values.length == 0) return "no latency samples";
+        Arrays.sort(values);
+        return String.format("latency p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                values[values.length / 2] / 1000.0, values[(int) (values.length * 0.99)] / 1000.0,
+                values[values.length - 1] / 1000.0);
+    }
+}
@@ -0,0 +1,103 @@
+package com.example;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+// checks that --outbox means the same on both engines: a client that stops reading while the lobby
+// floods holds at most --outbox messages on the server, keeps its connection under drop-oldest, and is
+// disconnected under disconnect.
+// Usage: java com.example.ChatOutboxCheck
+public class ChatOutboxCheck {
+    private static final int PORT = 15600;
+    private static final int OUTBOX = 16;
+    // lines of 1 KB, sent a thousand at a time until the stalled client's socket buffers are full
+    private static final int LINE_LENGTH = 1000;
+    private static final int ROUNDS = 200;
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        run("blocking", PORT, "--virtual");
+        run("nio", PORT + 2, "--nio");
+        if (failures > 0) {
+            System.out.println("FAILED: " + failures + " check(s)");
+            System.exit(1);
+        }
+        System.out.println("OK");
+        System.exit(0);
+    }
+
+    private static void run(String engine, int port, String mode) throws Exception {
+        ChatServer dropping = start(port, mode, "drop-oldest");
+        Socket stalled = stalled(port);
+        flood(port, dropping);
+        long depth = dropping.metrics.getOutboxDepthMax();
+        check(depth == OUTBOX, engine + ": a stalled client holds --outbox=" + OUTBOX + " messages under drop-oldest (" + depth + ")");
+        check(dropping.metrics.getClosedConnections() == 1, engine + ": and keeps its connection; only the sender has left");
+        stalled.close();
+
+        ChatServer disconnecting = start(port + 1, mode, "disconnect");
+        stalled = stalled(port + 1);
+        flood(port + 1, disconnecting);
+        check(disconnecting.metrics.getClosedConnections() == 2, engine + ": a stalled client is disconnected once --outbox is full");
+        stalled.close();
+    }
+
+    private static ChatServer start(int port, String mode, String policy) throws InterruptedException {
+        ChatServer server = new ChatServer(new String[] {mode, "--port=" + port, "--outbox=" + OUTBOX,
+                "--slow-consumer=" + policy, "--history=0"});
+        Thread t = new Thread(server::run, "server-" + port);
+        t.setDaemon(true);
+        t.start();
+        Thread.sleep(200);
+        return server;
+    }
+
+    // a text client that never reads, with a small receive buffer so the server's outbox fills soon
+    private static Socket stalled(int port) throws IOException, InterruptedException {
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(4096);
+        socket.connect(new InetSocketAddress("localhost", port));
+        // silent through negotiation, so it joins the lobby as a text client
+        Thread.sleep(500);
+        return socket;
+    }
+
+    // floods the lobby until the server holds messages back from the stalled client, or has dropped it.
+    // Under drop-oldest most lines are dropped before the kernel's send buffer fills, so this takes
+    // many rounds on the blocking engine. The sender reads its own echo, so only the stalled client falls behind
+    private static void flood(int port, ChatServer server) throws Exception {
+        try (Socket sender = new Socket("localhost", port)) {
+            var in = sender.getInputStream();
+            Thread drain = new Thread(() -> {
+                byte[] buf = new byte[64 * 1024];
+                try {
+                    while (in.read(buf) >= 0) {
+                        // discard
+                    }
+                } catch (IOException e) {
+                    // closed below
+                }
+            });
+            drain.start();
+            var out = new BufferedWriter(new OutputStreamWriter(sender.getOutputStream(), StandardCharsets.UTF_8));
+            String line = "x".repeat(LINE_LENGTH);
+            for (int round = 0; round < ROUNDS; round++) {
+                for (int i = 0; i < 1000; i++) {
+                    out.write(line);
+                    out.write('\n');
+                }
+                out.flush();
+                Thread.sleep(200);
+                if (server.metrics.getOutboxDepthMax() >= OUTBOX || server.metrics.getClosedConnections() > 0) break;
+            }
+        }
+        // let the server notice the sender leaving
+        Thread.sleep(500);
+    }
+
+    private static void check(boolean ok, String what) {
+        System.out.println((ok ? "ok      " : "FAILED  ") + what);
+        if (!ok) failures++;
+    }
+}
@@ -1,74 +1,1352 @@
 package com.example;
+import com.sun.net.httpserver.HttpServer;
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 public class ChatServer {
     private static final int PORT = 5000;
-    private static Set<ClientHandler> clients = Collections.synchronizedSet(new HashSet<>());
+    private static final long BACKPRESSURE_TIMEOUT_MS = 5000;
+    // most buffers a writer hands to a single gathering write
+    private static final int WRITE_BATCH = 64;
+    // UTF-8 on both protocols, so text lines and binary frames can be relayed to each other as raw bytes
+    private static final Charset CHARSET = StandardCharsets.UTF_8;
+    // a binary client sends FrameCodec.MAGIC right after connecting; silence for this long means text
+    private static final int NEGOTIATION_TIMEOUT_MS = 200;
+    // every client joins it on connect, so clients that never use /join see the old global chat
+    static final String DEFAULT_ROOM = "lobby";
+    // all server state is per instance, so several nodes can run side by side in one JVM
+    private final String[] args;
+    private final int port;
+    private final RoomIndex rooms;
+    // every connected client, in either mode; concurrent so nothing iterating it holds a monitor
+    private final Set<Member> clients = ConcurrentHashMap.newKeySet();
+    private final int outboxCapacity;
+    private final SlowConsumerPolicy slowConsumerPolicy;
+    // a writer waits up to this long for more messages before writing, unless it already has flushBytes
+    private final long flushWindowNanos;
+    private final int flushBytes;
+    // log one received message in this many; 0 keeps per-message logging off the hot path entirely
+    private final int debugSample;
+    final Metrics metrics = new Metrics();
+    // set when --cluster-port or --peers is given
+    private Cluster cluster;
+
+    // what to do when a client's outbox, --outbox messages long on either engine, is full
+    enum SlowConsumerPolicy { DROP_OLDEST, DISCONNECT, BACKPRESSURE }
+
+    ChatServer(String[] args) {
+        this.args = args;
+        port = Integer.parseInt(option(args, "--port", String.valueOf(PORT)));
+        outboxCapacity = Integer.parseInt(option(args, "--outbox", "256"));
+        slowConsumerPolicy = SlowConsumerPolicy.valueOf(
+                option(args, "--slow-consumer", "drop-oldest").toUpperCase().replace('-', '_'));
+        flushWindowNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(option(args, "--flush-window-us", "0")));
+        flushBytes = Integer.parseInt(option(args, "--flush-bytes", "65536"));
+        // messages each room keeps for replay to members who join later, and how many rooms nobody is in
+        // keep theirs; the default room always does
+        rooms = new RoomIndex(16, Integer.parseInt(option(args, "--history", "50")), Integer.parseInt(option(args, "--idle-rooms", "1024")));
+        debugSample = Integer.parseInt(option(args, "--debug-sample", "0"));
+    }
 
     public static void main(String[] args) {
-        System.out.println("Chat Server started on port " + PORT);
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
+        ChatServer server = new ChatServer(args);
+        server.startMetrics(Integer.parseInt(option(args, "--metrics-port", "0")), Arrays.asList(args).contains("--flush-stats"));
+        server.run();
+    }
+
+    // serves clients on the calling thread until the listening socket fails
+    void run() {
+        List<String> options = Arrays.asList(args);
+        if (options.contains("--nio")) {
+            System.out.println("Chat Server (nio) started on port " + port);
+            try {
+                NioEngine engine = new NioEngine(port);
+                // relayed messages must reach nio connections on the selector thread
+                startCluster(engine::submit);
+                engine.run();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        // --virtual runs each handler on its own virtual thread instead of a platform thread
+        boolean virtual = options.contains("--virtual");
+        Executor launcher = virtual
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : task -> new Thread(task).start();
+        System.out.println("Chat Server " + (virtual ? "(virtual threads) " : "") + "started on port " + port);
+        // a blocking channel rather than a ServerSocket, so writers can use gathering writes
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            startCluster(Runnable::run);
             while (true) {
-                Socket socket = serverSocket.accept();
-                ClientHandler handler = new ClientHandler(socket);
+                SocketChannel channel = serverChannel.accept();
+                // writers coalesce on their own, so Nagle would only add delay
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                ClientHandler handler = new ClientHandler(channel);
                 clients.add(handler);
-                new Thread(handler).start();
+                metrics.accepted.increment();
+                launcher.execute(handler);
+                launcher.execute(handler::drainOutbox);
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    // broadcast message to all clients
-    public static void broadcast(String message, ClientHandler sender) {
-        synchronized (clients) {
-            for (ClientHandler client : clients) {
-                if (client != sender) {
-                    client.sendMessage(message);
+    // joins the cluster described by --cluster-port, --peers=host:port,... and --node-id (default: client port)
+    private void startCluster(Executor local) throws IOException {
+        int clusterPort = Integer.parseInt(option(args, "--cluster-port", "0"));
+        String peers = option(args, "--peers", "");
+        if (clusterPort == 0 && peers.isEmpty()) return;
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String peer : peers.split(",")) {
+            if (peer.isBlank()) continue;
+            int colon = peer.lastIndexOf(':');
+            addresses.add(new InetSocketAddress(peer.substring(0, colon).trim(), Integer.parseInt(peer.substring(colon + 1).trim())));
+        }
+        int nodeId = Integer.parseInt(option(args, "--node-id", String.valueOf(port)));
+        cluster = new Cluster(nodeId, addresses, local);
+        cluster.start(clusterPort);
+        System.out.println("Cluster node " + nodeId + " listening on " + clusterPort + ", peers " + addresses);
+    }
+
+    // registers the JMX bean, starts the rate sampler and, when a port is given, the plain-text endpoint
+    private void startMetrics(int metricsPort, boolean flushStats) {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(metrics, new ObjectName("com.example:type=ChatServer,port=" + port));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread t = new Thread(task, "metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        sampler.scheduleAtFixedRate(metrics::sampleRates, 1, 1, TimeUnit.SECONDS);
+        if (flushStats) {
+            long[] last = new long[2];
+            sampler.scheduleAtFixedRate(() -> {
+                long calls = metrics.writeCalls.sum() - last[0];
+                long messages = metrics.messagesOut.sum() - last[1];
+                last[0] += calls;
+                last[1] += messages;
+                if (calls > 0) {
+                    System.out.printf("Flush: %d messages in %d writes (%.1f per write, %d syscalls saved)%n",
+                            messages, calls, (double) messages / calls, messages - calls);
+                }
+            }, 10, 10, TimeUnit.SECONDS);
+        }
+        if (metricsPort > 0) {
+            try {
+                // local scrapers only
+                HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), metricsPort), 0);
+                http.createContext("/metrics", exchange -> {
+                    byte[] body = metrics.render().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                http.start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // value of a --name=value argument, or the fallback when it is absent
+    private static String option(String[] args, String name, String fallback) {
+        for (String arg : args) {
+            if (arg.startsWith(name + "=")) {
+                return arg.substring(name.length() + 1);
+            }
+        }
+        return fallback;
+    }
+
+    // a line from a text client: a room command, or a chat message for the sender's current room
+    void onLine(Member sender, Message line) {
+        ByteBuffer payload = line.payload;
+        received(line);
+        if (payload.hasRemaining() && payload.get(payload.position()) == '/') {
+            String[] parts = CHARSET.decode(payload.duplicate()).toString().trim().split("\\s+", 2);
+            String room = parts.length > 1 ? parts[1] : null;
+            switch (parts[0]) {
+                case "/join":
+                    joinRoom(sender, room);
+                    return;
+                case "/leave":
+                    leaveRoom(sender, room);
+                    return;
+                default:
+                    // not a command: relay it like any other line
+            }
+        }
+        publish(sender, line);
+    }
+
+    // a frame from a binary client; chat payloads are relayed without ever being decoded
+    void onFrame(Member sender, byte type, ByteBuffer payload) {
+        switch (type) {
+            case FrameCodec.MESSAGE:
+                if (hasLineBreak(payload)) {
+                    // text clients would see each part as a line of its own, so one could pass for a notice
+                    sender.deliver(Message.notice("messages cannot contain line breaks"));
+                    break;
+                }
+                Message message = new Message(type, payload);
+                received(message);
+                publish(sender, message);
+                break;
+            case FrameCodec.JOIN:
+                joinRoom(sender, CHARSET.decode(payload).toString());
+                break;
+            case FrameCodec.LEAVE:
+                leaveRoom(sender, payload.hasRemaining() ? CHARSET.decode(payload).toString() : null);
+                break;
+            default:
+                sender.deliver(Message.notice("unknown frame type " + type));
+        }
+    }
+
+    private static boolean hasLineBreak(ByteBuffer payload) {
+        for (int i = payload.position(); i < payload.limit(); i++) {
+            byte b = payload.get(i);
+            if (b == '\n' || b == '\r') return true;
+        }
+        return false;
+    }
+
+    private void received(Message message) {
+        metrics.messagesIn.increment();
+        metrics.bytesIn.add(message.payload.remaining());
+        if (debugSample > 0 && ThreadLocalRandom.current().nextInt(debugSample) == 0) {
+            System.out.println("Received: " + CHARSET.decode(message.payload.duplicate()));
+        }
+    }
+
+    private void joinRoom(Member sender, String room) {
+        if (room == null || !room.matches("[A-Za-z0-9_-]{1,32}")) {
+            sender.deliver(Message.notice("usage: /join <room>"));
+        } else {
+            sender.join(room);
+            sender.deliver(Message.notice("joined " + room));
+        }
+    }
+
+    private void leaveRoom(Member sender, String room) {
+        room = room != null ? room : sender.currentRoom;
+        if (room != null && sender.leave(room)) {
+            sender.deliver(Message.notice("left " + room));
+        }
+    }
+
+    private void publish(Member sender, Message message) {
+        String name = sender.currentRoom;
+        // the sender is a member, so its current room cannot have been dropped
+        Room room = name == null ? null : rooms.get(name);
+        if (room == null) {
+            sender.deliver(Message.notice("join a room first: /join <room>"));
+            return;
+        }
+        Message tagged = room.withTag(message);
+        broadcast(room, tagged, sender);
+        if (cluster != null) {
+            cluster.relay(name, tagged);
+        }
+    }
+
+    // broadcast message to the room's members; only enqueues, so a slow receiver cannot stall the sender
+    public void broadcast(String name, Message message, Member sender) {
+        Room room = rooms.get(name);
+        if (room != null) {
+            broadcast(room, message, sender);
+        }
+    }
+
+    private void broadcast(Room room, Message message, Member sender) {
+        long start = System.nanoTime();
+        room.history.append(message);
+        for (Member member : room.members) {
+            if (member != sender) {
+                member.deliver(message);
+            }
+        }
+        metrics.broadcastNanos.record(System.nanoTime() - start);
+    }
+
+    // writes as many queued buffers as one gathering write takes; returns false if the socket is full
+    boolean writeBatch(GatheringByteChannel channel, ByteBuffer[] batch, int count) throws IOException {
+        int first = 0;
+        while (first < count) {
+            long written = channel.write(batch, first, count - first);
+            metrics.writeCalls.increment();
+            metrics.bytesOut.add(written);
+            int done = first;
+            while (first < count && !batch[first].hasRemaining()) {
+                batch[first++] = null;
+            }
+            metrics.messagesOut.add(first - done);
+            if (written == 0 && first < count) return false;
+        }
+        return true;
+    }
+
+    public void removeClient(Member client) {
+        if (clients.remove(client)) {
+            metrics.closed.increment();
+        }
+    }
+
+    // read side of Metrics for JMX; every getter is a cheap sum or gauge
+    public interface MetricsMXBean {
+        long getActiveConnections();
+        long getAcceptedConnections();
+        long getClosedConnections();
+        double getAcceptedPerSecond();
+        double getClosedPerSecond();
+        long getMessagesIn();
+        long getMessagesOut();
+        long getBytesIn();
+        long getBytesOut();
+        long getWriteCalls();
+        long getRelayedIn();
+        long getRelayedOut();
+        long getBroadcastLatencyP50Nanos();
+        long getBroadcastLatencyP99Nanos();
+        long getBroadcastLatencyMaxNanos();
+        long getOutboxDepthMax();
+        long getOutboxDepthTotal();
+    }
+
+    // hot-path counters are LongAdders, so recording never contends between client threads
+    final class Metrics implements MetricsMXBean {
+        final LongAdder accepted = new LongAdder();
+        final LongAdder closed = new LongAdder();
+        final LongAdder messagesIn = new LongAdder();
+        final LongAdder messagesOut = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        final LongAdder writeCalls = new LongAdder();
+        final LongAdder relayedIn = new LongAdder();
+        final LongAdder relayedOut = new LongAdder();
+        final LatencyHistogram broadcastNanos = new LatencyHistogram();
+        private volatile double acceptedPerSecond;
+        private volatile double closedPerSecond;
+        // only touched by the sampler thread
+        private long lastAccepted;
+        private long lastClosed;
+
+        void sampleRates() {
+            long a = accepted.sum();
+            long c = closed.sum();
+            acceptedPerSecond = a - lastAccepted;
+            closedPerSecond = c - lastClosed;
+            lastAccepted = a;
+            lastClosed = c;
+        }
+
+        @Override public long getActiveConnections() { return clients.size(); }
+        @Override public long getAcceptedConnections() { return accepted.sum(); }
+        @Override public long getClosedConnections() { return closed.sum(); }
+        @Override public double getAcceptedPerSecond() { return acceptedPerSecond; }
+        @Override public double getClosedPerSecond() { return closedPerSecond; }
+        @Override public long getMessagesIn() { return messagesIn.sum(); }
+        @Override public long getMessagesOut() { return messagesOut.sum(); }
+        @Override public long getBytesIn() { return bytesIn.sum(); }
+        @Override public long getBytesOut() { return bytesOut.sum(); }
+        @Override public long getWriteCalls() { return writeCalls.sum(); }
+        @Override public long getRelayedIn() { return relayedIn.sum(); }
+        @Override public long getRelayedOut() { return relayedOut.sum(); }
+        @Override public long getBroadcastLatencyP50Nanos() { return broadcastNanos.percentile(0.5); }
+        @Override public long getBroadcastLatencyP99Nanos() { return broadcastNanos.percentile(0.99); }
+        @Override public long getBroadcastLatencyMaxNanos() { return broadcastNanos.percentile(1.0); }
+
+        @Override
+        public long getOutboxDepthMax() {
+            long max = 0;
+            for (Member client : clients) {
+                max = Math.max(max, client.queueDepth());
+            }
+            return max;
+        }
+
+        @Override
+        public long getOutboxDepthTotal() {
+            long total = 0;
+            for (Member client : clients) {
+                total += client.queueDepth();
+            }
+            return total;
+        }
+
+        // plain-text exposition for the --metrics-port endpoint
+        String render() {
+            StringBuilder out = new StringBuilder(1024);
+            line(out, "chat_connections_active", getActiveConnections());
+            line(out, "chat_connections_accepted_total", getAcceptedConnections());
+            line(out, "chat_connections_closed_total", getClosedConnections());
+            line(out, "chat_connections_accepted_per_second", getAcceptedPerSecond());
+            line(out, "chat_connections_closed_per_second", getClosedPerSecond());
+            line(out, "chat_messages_in_total", getMessagesIn());
+            line(out, "chat_messages_out_total", getMessagesOut());
+            line(out, "chat_bytes_in_total", getBytesIn());
+            line(out, "chat_bytes_out_total", getBytesOut());
+            line(out, "chat_write_calls_total", getWriteCalls());
+            line(out, "chat_relayed_in_total", getRelayedIn());
+            line(out, "chat_relayed_out_total", getRelayedOut());
+            line(out, "chat_broadcast_latency_nanos{quantile=\"0.5\"}", getBroadcastLatencyP50Nanos());
+            line(out, "chat_broadcast_latency_nanos{quantile=\"0.99\"}", getBroadcastLatencyP99Nanos());
+            line(out, "chat_broadcast_latency_nanos{quantile=\"1.0\"}", getBroadcastLatencyMaxNanos());
+            line(out, "chat_outbox_depth_max", getOutboxDepthMax());
+            line(out, "chat_outbox_depth_total", getOutboxDepthTotal());
+            // per-client depth only for clients with a backlog, to keep the page small with many idle clients
+            for (Member client : clients) {
+                int depth = client.queueDepth();
+                if (depth > 0) {
+                    line(out, "chat_outbox_depth{client=\"" + client.address + "\"}", depth);
                 }
             }
+            return out.toString();
+        }
+
+        private static void line(StringBuilder out, String name, Object value) {
+            out.append(name).append(' ').append(value).append('\n');
         }
     }
 
-    public static void removeClient(ClientHandler client) {
-        clients.remove(client);
+    // log-linear buckets in the style of HdrHistogram: 8 sub-buckets per power of two, so values
+    // are reported within 12.5%; recording is one atomic increment and never allocates
+    static final class LatencyHistogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_COUNT);
+
+        void record(long value) {
+            counts.incrementAndGet(index(Math.max(0, value)));
+        }
+
+        private static int index(long value) {
+            if (value < SUB_COUNT) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+            return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+        }
+
+        // largest value that falls into the bucket
+        private static long upperBound(int index) {
+            if (index < SUB_COUNT) return index;
+            int exponent = index / SUB_COUNT + SUB_BITS - 1;
+            long sub = index % SUB_COUNT;
+            return ((SUB_COUNT + sub + 1) << (exponent - SUB_BITS)) - 1;
+        }
+
+        long percentile(double p) {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                total += counts.get(i);
+            }
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) return upperBound(i);
+            }
+            return upperBound(counts.length() - 1);
+        }
+    }
+
+    // one chat line shared by every recipient; each wire form is encoded at most once, on first use
+    static final class Message {
+        final byte type;
+        // the line's UTF-8 bytes without any terminator or header
+        final ByteBuffer payload;
+        private volatile ByteBuffer text;
+        private volatile ByteBuffer frame;
+
+        Message(byte type, ByteBuffer payload) {
+            this.type = type;
+            this.payload = payload.asReadOnlyBuffer();
+        }
+
+        // wraps a newline-terminated line without copying; the payload is a view that excludes the newline
+        static Message fromLine(byte type, ByteBuffer line) {
+            Message message = new Message(type, line.slice(line.position(), line.remaining() - 1));
+            message.text = line.asReadOnlyBuffer();
+            return message;
+        }
+
+        static Message of(String line) {
+            return of(FrameCodec.MESSAGE, line);
+        }
+
+        static Message notice(String line) {
+            return of(FrameCodec.NOTICE, "* " + line);
+        }
+
+        private static Message of(byte type, String line) {
+            byte[] bytes = line.getBytes(CHARSET);
+            ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length + 1);
+            buf.put(bytes).put((byte) '\n').flip();
+            return fromLine(type, buf);
+        }
+
+        // newline-terminated form for text clients
+        ByteBuffer text() {
+            ByteBuffer t = text;
+            if (t == null) {
+                ByteBuffer buf = ByteBuffer.allocateDirect(payload.remaining() + 1);
+                buf.put(payload.duplicate()).put((byte) '\n').flip();
+                text = t = buf.asReadOnlyBuffer();
+            }
+            return t;
+        }
+
+        // length-prefixed form for binary clients
+        ByteBuffer frame() {
+            ByteBuffer f = frame;
+            if (f == null) {
+                frame = f = FrameCodec.encode(type, payload);
+            }
+            return f;
+        }
     }
 
-    private static class ClientHandler implements Runnable {
-        private Socket socket;
-        private PrintWriter out;
+    // binary wire format, chosen by sending MAGIC as the first byte after connecting:
+    // a varint length of (type + payload), one type byte, then the UTF-8 payload
+    static final class FrameCodec {
+        // never valid in UTF-8, so no text line can start with it
+        static final int MAGIC = 0xC1;
+        static final byte MESSAGE = 1;
+        static final byte JOIN = 2;
+        static final byte LEAVE = 3;
+        static final byte NOTICE = 4;
+        static final int MAX_FRAME = 64 * 1024;
+
+        static ByteBuffer encode(byte type, ByteBuffer payload) {
+            int length = payload.remaining() + 1;
+            ByteBuffer buf = ByteBuffer.allocateDirect(varintSize(length) + length);
+            putVarint(buf, length);
+            buf.put(type).put(payload.duplicate()).flip();
+            return buf.asReadOnlyBuffer();
+        }
+
+        static int varintSize(int value) {
+            int size = 1;
+            while ((value >>>= 7) != 0) size++;
+            return size;
+        }
+
+        static void putVarint(ByteBuffer buf, int value) {
+            while ((value & ~0x7F) != 0) {
+                buf.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buf.put((byte) value);
+        }
+
+        // frame length at the buffer's position, or -1 (position unchanged) if the varint is incomplete
+        static int getVarint(ByteBuffer buf) throws ProtocolException {
+            int start = buf.position();
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                if (!buf.hasRemaining()) {
+                    buf.position(start);
+                    return -1;
+                }
+                byte b = buf.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return checkLength(value);
+            }
+            throw new ProtocolException("Malformed frame length");
+        }
+
+        // frame length from a stream, or -1 on a clean end of stream
+        static int readVarint(InputStream in) throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = in.read();
+                if (b < 0) {
+                    if (shift == 0) return -1;
+                    throw new EOFException("Truncated frame length");
+                }
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return checkLength(value);
+            }
+            throw new ProtocolException("Malformed frame length");
+        }
+
+        private static int checkLength(int length) throws ProtocolException {
+            if (length < 1 || length > MAX_FRAME) {
+                throw new ProtocolException("Bad frame length " + length);
+            }
+            return length;
+        }
+    }
+
+    // full-mesh relay between server nodes. Each node forwards its own clients' messages once to every
+    // peer, and peers only deliver them locally, so nothing is forwarded twice; ids also catch repeats
+    final class Cluster {
+        static final byte RELAY = 5;
+        private static final int LINK_QUEUE = 4096;
+        private static final long RECONNECT_DELAY_MS = 1000;
+
+        private final int nodeId;
+        // starts from the clock so a restarted node's ids stay above what peers have already seen;
+        // guarded by links, so frames reach every link queue in sequence order
+        private long nextSeq = System.currentTimeMillis() * 1000;
+        private final List<PeerLink> links = new ArrayList<>();
+        // highest sequence delivered per origin node; sequences are queued in order and a link keeps
+        // that order, so anything at or below it is a repeat
+        private final ConcurrentHashMap<Integer, Long> delivered = new ConcurrentHashMap<>();
+        private final Executor local;
+
+        Cluster(int nodeId, List<InetSocketAddress> peers, Executor local) {
+            this.nodeId = nodeId;
+            this.local = local;
+            for (InetSocketAddress peer : peers) {
+                links.add(new PeerLink(peer));
+            }
+        }
+
+        void start(int listenPort) throws IOException {
+            for (PeerLink link : links) {
+                daemon("peer-link-" + link.address, link::run);
+            }
+            if (listenPort == 0) return;
+            ServerSocketChannel server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(listenPort));
+            daemon("cluster-accept", () -> {
+                while (true) {
+                    try {
+                        SocketChannel channel = server.accept();
+                        daemon("peer-reader-" + channel.getRemoteAddress(), () -> readPeer(channel));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        return;
+                    }
+                }
+            });
+        }
+
+        private static void daemon(String name, Runnable task) {
+            Thread t = new Thread(task, name);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        // encodes once and queues the same frame on every link
+        void relay(String room, Message message) {
+            if (links.isEmpty()) return;
+            byte[] roomBytes = room.getBytes(CHARSET);
+            int length = 1 + 4 + 8 + 1 + roomBytes.length + 1 + message.payload.remaining();
+            ByteBuffer frame = ByteBuffer.allocateDirect(FrameCodec.varintSize(length) + length);
+            FrameCodec.putVarint(frame, length);
+            frame.put(RELAY).putInt(nodeId);
+            int seqAt = frame.position();
+            frame.putLong(0).put((byte) roomBytes.length).put(roomBytes)
+                    .put(message.type).put(message.payload.duplicate()).flip();
+            // numbering and queueing together: a sender that took a lower sequence but queued later
+            // would have its frame dropped by peers as a repeat
+            synchronized (links) {
+                frame.putLong(seqAt, nextSeq++);
+                ByteBuffer shared = frame.asReadOnlyBuffer();
+                for (PeerLink link : links) {
+                    link.offer(shared);
+                }
+            }
+        }
+
+        private void readPeer(SocketChannel channel) {
+            try (channel) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(channel.socket().getInputStream()));
+                byte[] scratch = new byte[FrameCodec.MAX_FRAME];
+                int length;
+                while ((length = FrameCodec.readVarint(in)) >= 0) {
+                    if (in.readByte() != RELAY) throw new ProtocolException("Unexpected frame on cluster link");
+                    int origin = in.readInt();
+                    long seq = in.readLong();
+                    byte[] roomBytes = new byte[in.readUnsignedByte()];
+                    in.readFully(roomBytes);
+                    byte type = in.readByte();
+                    int payloadLength = length - (1 + 4 + 8 + 1 + roomBytes.length + 1);
+                    in.readFully(scratch, 0, payloadLength);
+                    if (origin == nodeId || !firstDelivery(origin, seq)) continue;
+                    ByteBuffer payload = ByteBuffer.allocateDirect(payloadLength);
+                    payload.put(scratch, 0, payloadLength).flip();
+                    String room = new String(roomBytes, CHARSET);
+                    Message message = new Message(type, payload);
+                    metrics.relayedIn.increment();
+                    local.execute(() -> broadcast(room, message, null));
+                }
+            } catch (IOException e) {
+                System.out.println("Peer link closed: " + e.getMessage());
+            }
+        }
+
+        private boolean firstDelivery(int origin, long seq) {
+            boolean[] fresh = new boolean[1];
+            delivered.compute(origin, (node, last) -> {
+                if (last != null && seq <= last) return last;
+                fresh[0] = true;
+                return seq;
+            });
+            return fresh[0];
+        }
+
+        // outbound side of one peer: reconnects on failure and sends whatever is queued as one gathering write
+        private final class PeerLink {
+            private final InetSocketAddress address;
+            private final BlockingQueue<ByteBuffer> queue = new ArrayBlockingQueue<>(LINK_QUEUE);
+
+            PeerLink(InetSocketAddress address) {
+                this.address = address;
+            }
+
+            // a peer that is down or slow loses its oldest frames rather than stalling local senders
+            void offer(ByteBuffer frame) {
+                while (!queue.offer(frame)) {
+                    queue.poll();
+                }
+            }
+
+            void run() {
+                ByteBuffer[] batch = new ByteBuffer[WRITE_BATCH];
+                while (true) {
+                    try (SocketChannel channel = SocketChannel.open(address)) {
+                        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                        System.out.println("Linked to peer " + address);
+                        while (true) {
+                            int count = 0;
+                            ByteBuffer frame = queue.take();
+                            do {
+                                batch[count++] = frame.duplicate();
+                            } while (count < batch.length && (frame = queue.poll()) != null);
+                            writeBatch(channel, batch, count);
+                            metrics.relayedOut.add(count);
+                        }
+                    } catch (IOException e) {
+                        // peer not up yet or gone; retry below
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    try {
+                        Thread.sleep(RECONNECT_DELAY_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    // a connected client as seen by the room index; room state is only touched by its own reader
+    abstract class Member {
+        private final Set<String> joined = new HashSet<>();
+        final String address;
+        String currentRoom;
+
+        Member(SocketChannel channel) {
+            String remote;
+            try {
+                remote = String.valueOf(channel.getRemoteAddress());
+            } catch (IOException e) {
+                remote = "unknown";
+            }
+            address = remote;
+        }
+
+        // messages waiting to be written to this client
+        abstract int queueDepth();
+
+        // queue a message for this client, in whichever wire form it speaks
+        abstract void deliver(Message message);
+
+        void join(String room) {
+            if (joined.add(room)) {
+                // registering first can repeat a message sent meanwhile, but never loses one
+                for (Message message : rooms.join(room, this).history.snapshot()) {
+                    deliver(message);
+                }
+            }
+            currentRoom = room;
+        }
+
+        boolean leave(String room) {
+            if (!joined.remove(room)) return false;
+            rooms.leave(room, this);
+            if (room.equals(currentRoom)) {
+                currentRoom = joined.isEmpty() ? null : joined.iterator().next();
+            }
+            return true;
+        }
+
+        void leaveAll() {
+            for (String room : joined) {
+                rooms.leave(room, this);
+            }
+            joined.clear();
+            currentRoom = null;
+        }
+    }
+
+    static final class Room {
+        final String name;
+        final Set<Member> members = ConcurrentHashMap.newKeySet();
+        final History history;
+        // "[room] " in UTF-8, encoded once; null for the default room, whose lines go out untagged
+        private final byte[] tag;
+
+        Room(String name, int historySize) {
+            this.name = name;
+            history = new History(historySize);
+            tag = name.equals(DEFAULT_ROOM) ? null : ("[" + name + "] ").getBytes(CHARSET);
+        }
+
+        // lines outside the default room carry a "[room] " prefix so members of several rooms can tell them apart
+        Message withTag(Message message) {
+            if (tag == null) return message;
+            ByteBuffer line = ByteBuffer.allocateDirect(tag.length + message.payload.remaining() + 1);
+            line.put(tag).put(message.payload.duplicate()).put((byte) '\n').flip();
+            return Message.fromLine(message.type, line);
+        }
+    }
+
+    // the last N messages of a room in a preallocated ring; appends are lock-free and never block readers
+    static final class History {
+        private final AtomicReferenceArray<Entry> slots;
+        private final AtomicLong next = new AtomicLong();
+
+        private static final class Entry {
+            final long seq;
+            final Message message;
+
+            Entry(long seq, Message message) {
+                this.seq = seq;
+                this.message = message;
+            }
+        }
+
+        History(int capacity) {
+            slots = new AtomicReferenceArray<>(capacity);
+        }
+
+        void append(Message message) {
+            if (slots.length() == 0) return;
+            long seq = next.getAndIncrement();
+            int slot = (int) (seq % slots.length());
+            Entry entry = new Entry(seq, message);
+            // a writer stalled between taking its sequence and publishing may find the slot already
+            // reused by a later lap; it must not put the older message back over the newer one
+            Entry current;
+            do {
+                current = slots.get(slot);
+                if (current != null && current.seq > seq) return;
+            } while (!slots.compareAndSet(slot, current, entry));
+        }
+
+        // oldest first; skips slots a concurrent append has claimed but not filled, or already overwritten
+        List<Message> snapshot() {
+            long end = next.get();
+            long start = Math.max(0, end - slots.length());
+            List<Message> messages = new ArrayList<>((int) (end - start));
+            for (long seq = start; seq < end; seq++) {
+                Entry entry = slots.get((int) (seq % slots.length()));
+                if (entry != null && entry.seq == seq) {
+                    messages.add(entry.message);
+                }
+            }
+            return messages;
+        }
+    }
+
+    // room name -> room, split into shards by room hash so busy rooms don't contend with each other.
+    // A room outlives its members so people joining later still get its history; only the idleRooms
+    // that emptied longest ago are kept, and the default room is never dropped
+    static class RoomIndex {
+        private final List<ConcurrentHashMap<String, Room>> shards = new ArrayList<>();
+        private final int historySize;
+        private final int idleRooms;
+        // rooms in the order they last emptied; guarded by itself. A room rejoined meanwhile stays
+        // listed and is simply kept when its turn comes
+        private final LinkedHashMap<String, Room> idle = new LinkedHashMap<>();
+
+        RoomIndex(int shardCount, int historySize, int idleRooms) {
+            this.historySize = historySize;
+            this.idleRooms = idleRooms;
+            for (int i = 0; i < shardCount; i++) {
+                shards.add(new ConcurrentHashMap<>());
+            }
+        }
+
+        private ConcurrentHashMap<String, Room> shard(String name) {
+            return shards.get(Math.floorMod(name.hashCode(), shards.size()));
+        }
+
+        Room join(String name, Member member) {
+            return shard(name).compute(name, (key, room) -> {
+                Room r = room != null ? room : new Room(key, historySize);
+                r.members.add(member);
+                return r;
+            });
+        }
+
+        void leave(String name, Member member) {
+            Room room = get(name);
+            if (room == null || !room.members.remove(member) || !room.members.isEmpty() || name.equals(DEFAULT_ROOM)) return;
+            List<Room> evicted = new ArrayList<>();
+            synchronized (idle) {
+                idle.remove(name);
+                idle.put(name, room);
+                Iterator<Room> oldest = idle.values().iterator();
+                while (idle.size() > idleRooms) {
+                    evicted.add(oldest.next());
+                    oldest.remove();
+                }
+            }
+            for (Room r : evicted) {
+                // compute keeps the empty check atomic with a concurrent join
+                shard(r.name).computeIfPresent(r.name, (key, current) -> current == r && r.members.isEmpty() ? null : current);
+            }
+        }
+
+        Room get(String name) {
+            return shard(name).get(name);
+        }
+    }
+
+    private class ClientHandler extends Member implements Runnable {
+        private SocketChannel channel;
         private BufferedReader in;
+        private volatile boolean binary;
+        // bounded ring buffer drained by drainOutbox; holds shared, read-only message buffers
+        private final BlockingQueue<ByteBuffer> outbox = new ArrayBlockingQueue<>(outboxCapacity);
+        private volatile boolean closed;
+        private volatile Thread writer;
+
+        public ClientHandler(SocketChannel channel) {
+            super(channel);
+            this.channel = channel;
+        }
 
-        public ClientHandler(Socket socket) {
-            this.socket = socket;
+        @Override
+        int queueDepth() {
+            return outbox.size();
         }
 
         public void run() {
             try {
-                out = new PrintWriter(socket.getOutputStream(), true);
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                Socket socket = channel.socket();
+                InputStream raw = new BufferedInputStream(socket.getInputStream());
+                binary = negotiate(socket, raw);
+                join(DEFAULT_ROOM);
+                if (binary) {
+                    readFrames(raw);
+                    return;
+                }
+                in = new BufferedReader(new InputStreamReader(raw, CHARSET));
 
                 String message;
                 while ((message = in.readLine()) != null) {
-                    System.out.println("Received: " + message);
-                    ChatServer.broadcast(message, this);
+                    onLine(this, Message.of(message));
                 }
             } catch (IOException e) {
                 System.out.println("Client disconnected.");
             } finally {
+                close();
+                leaveAll();
+            }
+        }
+
+        // true if the client opens with FrameCodec.MAGIC; text clients may send nothing, hence the timeout
+        private static boolean negotiate(Socket socket, InputStream raw) throws IOException {
+            socket.setSoTimeout(NEGOTIATION_TIMEOUT_MS);
+            raw.mark(1);
+            try {
+                if (raw.read() == FrameCodec.MAGIC) return true;
+                raw.reset();
+            } catch (SocketTimeoutException e) {
+                // a listen-only text client
+            } finally {
+                socket.setSoTimeout(0);
+            }
+            return false;
+        }
+
+        private void readFrames(InputStream raw) throws IOException {
+            DataInputStream data = new DataInputStream(raw);
+            byte[] scratch = new byte[FrameCodec.MAX_FRAME];
+            int length;
+            while ((length = FrameCodec.readVarint(data)) >= 0) {
+                byte type = data.readByte();
+                data.readFully(scratch, 0, length - 1);
+                ByteBuffer payload = ByteBuffer.allocateDirect(length - 1);
+                payload.put(scratch, 0, length - 1).flip();
+                onFrame(this, type, payload);
+            }
+        }
+
+        // writer task: sends everything queued so far with one gathering write
+        void drainOutbox() {
+            writer = Thread.currentThread();
+            ByteBuffer[] batch = new ByteBuffer[WRITE_BATCH];
+            try {
+                while (!closed) {
+                    int count = 0;
+                    long bytes = 0;
+                    ByteBuffer msg = outbox.take();
+                    long deadline = System.nanoTime() + flushWindowNanos;
+                    while (msg != null) {
+                        // each recipient needs its own position over the shared bytes
+                        batch[count++] = msg.duplicate();
+                        bytes += msg.remaining();
+                        if (count == batch.length || bytes >= flushBytes) break;
+                        msg = outbox.poll();
+                        if (msg == null && flushWindowNanos > 0) {
+                            long wait = deadline - System.nanoTime();
+                            if (wait > 0) msg = outbox.poll(wait, TimeUnit.NANOSECONDS);
+                        }
+                    }
+                    writeBatch(channel, batch, count);
+                }
+            } catch (IOException e) {
+                // socket already gone, reader side reports the disconnect
+            } catch (InterruptedException e) {
+                // interrupted by close()
+            } finally {
+                close();
+            }
+        }
+
+        @Override
+        void deliver(Message message) {
+            if (closed) return;
+            ByteBuffer msg = binary ? message.frame() : message.text();
+            switch (slowConsumerPolicy) {
+                case DROP_OLDEST:
+                    while (!outbox.offer(msg)) {
+                        outbox.poll();
+                    }
+                    break;
+                case DISCONNECT:
+                    if (!outbox.offer(msg)) {
+                        System.out.println("Client too slow, disconnecting.");
+                        close();
+                    }
+                    break;
+                case BACKPRESSURE:
+                    try {
+                        if (!outbox.offer(msg, BACKPRESSURE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                            System.out.println("Client too slow, disconnecting.");
+                            close();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    break;
+            }
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            removeClient(this);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            Thread w = writer;
+            if (w != null && w != Thread.currentThread()) {
+                w.interrupt();
+            }
+        }
+    }
+
+    // non-blocking mode: a single selector thread serves every connection
+    private class NioEngine {
+        // starting size; a connection's buffer grows when a text line or binary frame up to FrameCodec.MAX_FRAME needs it
+        private static final int READ_BUFFER_SIZE = 4 * 1024;
+
+        private final Selector selector;
+        private final ServerSocketChannel server;
+        // only touched by the selector thread, so no locking is needed
+        private final Set<Connection> connections = new HashSet<>();
+        private final List<Connection> dirty = new ArrayList<>();
+        // accepted connections that have not yet shown which protocol they speak, oldest first
+        private final ArrayDeque<Connection> negotiating = new ArrayDeque<>();
+        // work handed over from other threads, run on the selector thread
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        NioEngine(int port) throws IOException {
+            selector = Selector.open();
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(port), 1024);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        }
+
+        void run() throws IOException {
+            while (true) {
+                Connection oldest = negotiating.peek();
+                long wait = oldest == null ? 0 : oldest.acceptedAt + NEGOTIATION_TIMEOUT_MS - System.currentTimeMillis();
+                if (oldest != null && wait <= 0) {
+                    selector.selectNow();
+                } else {
+                    selector.select(wait);
+                }
+                expireNegotiations();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection conn = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) read(conn);
+                        if (key.isValid() && key.isWritable()) conn.flush();
+                    } catch (IOException e) {
+                        close(conn);
+                    }
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                // flush everything queued by this round of reads in one pass
+                for (Connection conn : dirty) {
+                    try {
+                        conn.flush();
+                    } catch (IOException e) {
+                        close(conn);
+                    }
+                }
+                dirty.clear();
+            }
+        }
+
+        void submit(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = server.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection conn = new Connection(channel);
+                conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+                connections.add(conn);
+                clients.add(conn);
+                metrics.accepted.increment();
+                negotiating.add(conn);
+            }
+        }
+
+        // connections that stayed silent past the timeout are text clients that only listen
+        private void expireNegotiations() {
+            long now = System.currentTimeMillis();
+            Connection conn;
+            while ((conn = negotiating.peek()) != null
+                    && (!conn.negotiating || conn.acceptedAt + NEGOTIATION_TIMEOUT_MS <= now)) {
+                negotiating.poll();
+                if (conn.negotiating && conn.channel.isOpen()) {
+                    conn.negotiating = false;
+                    conn.join(DEFAULT_ROOM);
+                }
+            }
+        }
+
+        private void read(Connection conn) throws IOException {
+            ByteBuffer in = conn.readBuffer;
+            int n = conn.channel.read(in);
+            if (n < 0) {
+                System.out.println("Client disconnected.");
+                close(conn);
+                return;
+            }
+            in.flip();
+            if (conn.negotiating && in.hasRemaining()) {
+                conn.negotiating = false;
+                if ((in.get(in.position()) & 0xFF) == FrameCodec.MAGIC) {
+                    conn.binary = true;
+                    in.get();
+                }
+                conn.join(DEFAULT_ROOM);
+            }
+            if (conn.binary) {
+                readFrames(conn, in);
+                return;
+            }
+            int start = in.position();
+            for (int i = start; i < in.limit(); i++) {
+                if (in.get(i) == '\n') {
+                    int end = i > start && in.get(i - 1) == '\r' ? i - 1 : i;
+                    // copy the line straight out of the read buffer into the buffer every recipient shares
+                    ByteBuffer line = ByteBuffer.allocateDirect(end - start + 1);
+                    line.put(in.slice(start, end - start)).put((byte) '\n').flip();
+                    onLine(conn, Message.fromLine(FrameCodec.MESSAGE, line));
+                    if (!conn.channel.isOpen()) return;
+                    start = i + 1;
+                }
+            }
+            in.position(start);
+            in.compact();
+            if (!in.hasRemaining()) {
+                if (in.capacity() >= FrameCodec.MAX_FRAME) {
+                    // the same limit binary frames have
+                    System.out.println("Line too long, dropping client.");
+                    close(conn);
+                    return;
+                }
+                // a line longer than the buffer so far: like readFrames, grow this connection's buffer only
+                in.flip();
+                conn.readBuffer = ByteBuffer.allocateDirect(Math.min(in.capacity() * 2, FrameCodec.MAX_FRAME)).put(in);
+            }
+        }
+
+        private void readFrames(Connection conn, ByteBuffer in) throws IOException {
+            while (true) {
+                int start = in.position();
+                int length = FrameCodec.getVarint(in);
+                if (length < 0 || in.remaining() < length) {
+                    int needed = length < 0 ? 0 : FrameCodec.varintSize(length) + length;
+                    in.position(start);
+                    if (needed > in.capacity()) {
+                        // same limit as the blocking engine: only this connection pays for the larger buffer
+                        conn.readBuffer = ByteBuffer.allocateDirect(needed).put(in);
+                        return;
+                    }
+                    break;
+                }
+                byte type = in.get();
+                // the payload is copied out once and then shared by every recipient
+                ByteBuffer payload = ByteBuffer.allocateDirect(length - 1);
+                payload.put(in.slice(in.position(), length - 1)).flip();
+                in.position(in.position() + length - 1);
+                onFrame(conn, type, payload);
+                if (!conn.channel.isOpen()) return;
+            }
+            in.compact();
+        }
+
+        private void close(Connection conn) {
+            if (connections.remove(conn)) {
+                removeClient(conn);
+                conn.leaveAll();
+                conn.key.cancel();
                 try {
-                    socket.close();
+                    conn.channel.close();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
-                ChatServer.removeClient(this);
             }
         }
 
-        public void sendMessage(String msg) {
-            out.println(msg);
+        private class Connection extends Member {
+            private final SocketChannel channel;
+            private ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+            // duplicates of shared message buffers, oldest first
+            private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+            private final ByteBuffer[] batch = new ByteBuffer[WRITE_BATCH];
+            private final long acceptedAt = System.currentTimeMillis();
+            private SelectionKey key;
+            private boolean dirty;
+            private boolean negotiating = true;
+            private boolean binary;
+
+            // written by the selector thread, read by metrics scrapes
+            private volatile int depth;
+
+            Connection(SocketChannel channel) {
+                super(channel);
+                this.channel = channel;
+            }
+
+            @Override
+            int queueDepth() {
+                return depth;
+            }
+
+            @Override
+            void deliver(Message message) {
+                if (enqueue(binary ? message.frame() : message.text()) && !dirty) {
+                    dirty = true;
+                    NioEngine.this.dirty.add(this);
+                }
+            }
+
+            // --outbox counts messages on both engines; a head already partly on the wire has left the
+            // outbox, as it has once a blocking writer takes it
+            private int waiting() {
+                ByteBuffer head = pending.peek();
+                return head != null && head.position() > 0 ? pending.size() - 1 : pending.size();
+            }
+
+            boolean enqueue(ByteBuffer message) {
+                ByteBuffer head = pending.peek();
+                if (waiting() >= outboxCapacity) {
+                    if (slowConsumerPolicy != SlowConsumerPolicy.DROP_OLDEST) {
+                        // the event loop is shared, so backpressure cannot block here and also disconnects
+                        System.out.println("Client too slow, disconnecting.");
+                        close(this);
+                        return false;
+                    }
+                    pending.poll();
+                    if (head.position() > 0) {
+                        // keep the partly written one and drop the one behind it
+                        pending.poll();
+                        pending.addFirst(head);
+                    }
+                }
+                pending.add(message.duplicate());
+                depth = waiting();
+                return true;
+            }
+
+            void flush() throws IOException {
+                dirty = false;
+                while (!pending.isEmpty()) {
+                    int count = 0;
+                    for (ByteBuffer buf : pending) {
+                        batch[count++] = buf;
+                        if (count == batch.length) break;
+                    }
+                    boolean drained = writeBatch(channel, batch, count);
+                    Arrays.fill(batch, 0, count, null);
+                    // drop what went out; a partly written head stays first in line
+                    while (!pending.isEmpty() && !pending.peek().hasRemaining()) {
+                        pending.poll();
+                    }
+                    if (!drained) break;
+                }
+                depth = waiting();
+                if (key.isValid()) {
+                    key.interestOps(pending.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            }
         }
     }
 }
@@ -0,0 +1,254 @@
+package com.example;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// compares the blocking engine on platform threads with --virtual: starts each as its own server process,
+// opens as many idle connections as it will take (up to --connections), then measures broadcast latency
+// to a listener while lobby members receive every line and the idle connections stay open. Reports the
+// connections reached, the server's OS threads and resident memory, and latency percentiles.
+// Usage: java com.example.ChatThreadsCheck [--connections=15000] [--members=100] [--rate=200] [--duration-s=20]
+// Client and server each hold one descriptor per connection; ulimit -n bounds --connections.
+public class ChatThreadsCheck {
+    private static final int PORT = 15500;
+    // a connect loop that makes no progress for this long has hit the server's limit
+    private static final long STALL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    public static void main(String[] args) throws Exception {
+        int connections = Integer.parseInt(option(args, "--connections", "15000"));
+        int members = Integer.parseInt(option(args, "--members", "100"));
+        int rate = Integer.parseInt(option(args, "--rate", "200"));
+        int seconds = Integer.parseInt(option(args, "--duration-s", "20"));
+        var results = new ArrayList<String>();
+        results.add(run("platform threads", PORT, null, connections, members, rate, seconds));
+        results.add(run("virtual threads", PORT + 1, "--virtual", connections, members, rate, seconds));
+        System.out.println();
+        for (String result : results) {
+            System.out.println(result);
+        }
+        System.exit(0);
+    }
+
+    private static String run(String label, int port, String mode, int connections, int members, int rate, int seconds)
+            throws Exception {
+        var command = new ArrayList<>(List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), "com.example.ChatServer", "--port=" + port));
+        if (mode != null) command.add(mode);
+        // the server logs every connect and disconnect; only its resources matter here
+        Process server = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        var address = new InetSocketAddress("localhost", port);
+        var open = new ArrayList<SocketChannel>();
+        try {
+            awaitListening(address);
+            System.out.println(label + ": server pid " + server.pid());
+
+            // lobby members say nothing, so they join as listen-only text clients and get every line
+            var selector = Selector.open();
+            for (int i = 0; i < members; i++) {
+                SocketChannel member = SocketChannel.open(address);
+                member.configureBlocking(false);
+                member.register(selector, SelectionKey.OP_READ);
+                open.add(member);
+            }
+            daemon("members", () -> drain(selector));
+            Socket listener = new Socket(address.getAddress(), port);
+            Socket sender = new Socket(address.getAddress(), port);
+            daemon("sender-drain", () -> drain(sender));
+            var latencies = new ArrayList<Long>();
+            daemon("listener", () -> listen(listener, latencies));
+
+            int idle = openIdle(address, connections - members - 2, open);
+            int reached = idle + members + 2;
+            String resources = resources(server.pid());
+            System.out.println(label + ": " + reached + " connections, " + resources);
+
+            Thread.sleep(1000);
+            synchronized (latencies) {
+                latencies.clear();
+            }
+            send(sender, rate, TimeUnit.SECONDS.toNanos(seconds));
+            Thread.sleep(1000);
+            long[] values;
+            synchronized (latencies) {
+                values = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+            }
+            long expected = (long) rate * seconds;
+            return String.format("%-16s %6d connections, %s; %d/%d lines, %s", label, reached, resources,
+                    values.length, expected, percentiles(values));
+        } finally {
+            server.destroyForcibly().waitFor();
+            for (SocketChannel channel : open) {
+                channel.close();
+            }
+        }
+    }
+
+    // value of a --name=value argument, or the fallback when it is absent
+    private static String option(String[] args, String name, String fallback) {
+        for (String arg : args) {
+            if (arg.startsWith(name + "=")) {
+                return arg.substring(name.length() + 1);
+            }
+        }
+        return fallback;
+    }
+
+    private static void daemon(String name, Runnable task) {
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static void awaitListening(InetSocketAddress address) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try {
+                SocketChannel.open(address).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("server did not start on " + address);
+    }
+
+    // connections that leave the lobby right away; stops early once the server stops taking them
+    private static int openIdle(InetSocketAddress address, int count, List<SocketChannel> open) throws IOException {
+        byte[] leave = "/leave lobby\n".getBytes(StandardCharsets.UTF_8);
+        var opened = new ArrayList<SocketChannel>(count);
+        long lastProgress = System.nanoTime();
+        while (opened.size() < count && System.nanoTime() - lastProgress < STALL_NANOS) {
+            SocketChannel channel = SocketChannel.open();
+            try {
+                // a server that stopped accepting leaves connects hanging once its backlog is full
+                channel.socket().connect(address, 2000);
+                channel.write(ByteBuffer.wrap(leave));
+                opened.add(channel);
+                lastProgress = System.nanoTime();
+                if (opened.size() % 1000 == 0) System.out.println(opened.size() + " idle connected");
+            } catch (IOException e) {
+                channel.close();
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+        open.addAll(opened);
+        return countServed(opened);
+    }
+
+    // a connection can sit in the accept backlog, or be accepted without a handler, and still look open
+    // from here; one that is served answers a /join, so ask them all and count the answers
+    private static int countServed(List<SocketChannel> channels) throws IOException {
+        byte[] probe = "/join probe\n/leave probe\n".getBytes(StandardCharsets.UTF_8);
+        try (Selector selector = Selector.open()) {
+            for (SocketChannel channel : channels) {
+                channel.write(ByteBuffer.wrap(probe));
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ);
+            }
+            ByteBuffer buf = ByteBuffer.allocate(4096);
+            int served = 0;
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (served < channels.size() && System.nanoTime() < end) {
+                selector.select(500);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    buf.clear();
+                    ((SocketChannel) key.channel()).read(buf);
+                    key.cancel();
+                    served++;
+                }
+                selector.selectedKeys().clear();
+            }
+            return served;
+        }
+    }
+
+    // OS threads and resident memory of the server process, from /proc where there is one
+    private static String resources(long pid) {
+        try {
+            String threads = "?", rss = "?";
+            for (String line : Files.readAllLines(Path.of("/proc", String.valueOf(pid), "status"))) {
+                if (line.startsWith("Threads:")) threads = line.substring(8).trim();
+                if (line.startsWith("VmRSS:")) rss = line.substring(6).trim();
+            }
+            return threads + " server threads, " + rss + " resident";
+        } catch (IOException e) {
+            return "server threads and memory unknown";
+        }
+    }
+
+    // paces lines at a fixed rate; each line is the send time, so the listener can compute latency
+    private static void send(Socket socket, int perSecond, long duration) throws IOException, InterruptedException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        long interval = 1_000_000_000L / perSecond;
+        long next = System.nanoTime();
+        long end = next + duration;
+        while (next < end) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+            out.write(System.nanoTime() + "\n");
+            out.flush();
+            next += interval;
+        }
+    }
+
+    private static void listen(Socket socket, List<Long> latencies) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty() || !Character.isDigit(line.charAt(0))) continue;
+                long micros = (System.nanoTime() - Long.parseLong(line)) / 1000;
+                synchronized (latencies) {
+                    latencies.add(micros);
+                }
+            }
+        } catch (IOException e) {
+            // server stopped
+        }
+    }
+
+    private static void drain(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            byte[] buf = new byte[8192];
+            while (in.read(buf) >= 0) {
+                // discard
+            }
+        } catch (IOException e) {
+            // server stopped
+        }
+    }
+
+    private static void drain(Selector selector) {
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    buf.clear();
+                    if (((SocketChannel) key.channel()).read(buf) < 0) key.cancel();
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            // server stopped
+        }
+    }
+
+    private static String percentiles(long[] micros) {
+        if (micros.length == 0) return "no latency samples";
+        return String.format("latency p50 %.2f ms, p99 %.2f ms, max %.2f ms", micros[micros.length / 2] / 1000.0,
+                micros[(int) (micros.length * 0.99)] / 1000.0, micros[micros.length - 1] / 1000.0);
+    }
+}
@@ -0,0 +1,270 @@
+package com.example;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// checks ChatServer.FrameCodec (varint lengths, truncated input, length limits), sends a frame near
+// MAX_FRAME, text lines of the same size and frames with line breaks through both engines, then
+// compares text and binary relay throughput.
+// Usage: java com.example.FrameCodecCheck [messages]
+public class FrameCodecCheck {
+    private static final int PORT = 15300;
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        varints();
+        truncation();
+        limits();
+        start(PORT, "--virtual");
+        start(PORT + 1, "--nio");
+        largeFrame("blocking", PORT);
+        largeFrame("nio", PORT + 1);
+        longLine("blocking", PORT);
+        longLine("nio", PORT + 1);
+        lineBreaks("blocking", PORT);
+        lineBreaks("nio", PORT + 1);
+        if (failures > 0) {
+            System.out.println("FAILED: " + failures + " check(s)");
+            System.exit(1);
+        }
+        System.out.println("Codec checks OK");
+        throughput(messages, PORT + 2, "--virtual");
+        throughput(messages, PORT + 3, "--nio");
+        System.exit(0);
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) {
+            System.out.println("FAILED: " + what);
+            failures++;
+        }
+    }
+
+    // round trip at every byte-count boundary, through both the buffer and the stream decoder
+    private static void varints() throws IOException {
+        int[] values = {1, 127, 128, 16_383, 16_384, ChatServer.FrameCodec.MAX_FRAME};
+        for (int value : values) {
+            ByteBuffer buf = ByteBuffer.allocate(5);
+            ChatServer.FrameCodec.putVarint(buf, value);
+            check(buf.position() == ChatServer.FrameCodec.varintSize(value), "varintSize(" + value + ")");
+            buf.flip();
+            byte[] bytes = Arrays.copyOf(buf.array(), buf.limit());
+            check(ChatServer.FrameCodec.getVarint(buf) == value, "getVarint(" + value + ")");
+            check(!buf.hasRemaining(), "getVarint(" + value + ") consumed the varint");
+            check(ChatServer.FrameCodec.readVarint(new ByteArrayInputStream(bytes)) == value, "readVarint(" + value + ")");
+        }
+        ByteBuffer payload = StandardCharsets.UTF_8.encode("hello");
+        ByteBuffer frame = ChatServer.FrameCodec.encode(ChatServer.FrameCodec.MESSAGE, payload);
+        check(ChatServer.FrameCodec.getVarint(frame) == 6, "encoded length covers type and payload");
+        check(frame.get() == ChatServer.FrameCodec.MESSAGE, "encoded type");
+        check(StandardCharsets.UTF_8.decode(frame).toString().equals("hello"), "encoded payload");
+    }
+
+    private static void truncation() throws IOException {
+        ByteBuffer partial = ByteBuffer.wrap(new byte[] {(byte) 0x80, (byte) 0x80});
+        check(ChatServer.FrameCodec.getVarint(partial) == -1, "incomplete varint reports -1");
+        check(partial.position() == 0, "incomplete varint leaves the position alone");
+        check(ChatServer.FrameCodec.getVarint(ByteBuffer.allocate(0)) == -1, "empty buffer reports -1");
+        check(ChatServer.FrameCodec.readVarint(new ByteArrayInputStream(new byte[0])) == -1, "clean end of stream");
+        try {
+            ChatServer.FrameCodec.readVarint(new ByteArrayInputStream(new byte[] {(byte) 0x80}));
+            check(false, "truncated stream varint throws");
+        } catch (EOFException expected) {
+            // end of stream inside a length
+        }
+    }
+
+    private static void limits() throws IOException {
+        byte[][] bad = {
+                {0},
+                varint(ChatServer.FrameCodec.MAX_FRAME + 1),
+                {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 1},
+        };
+        for (byte[] bytes : bad) {
+            try {
+                ChatServer.FrameCodec.getVarint(ByteBuffer.wrap(bytes));
+                check(false, "getVarint rejects " + Arrays.toString(bytes));
+            } catch (ProtocolException expected) {
+                // zero, oversized or more than five varint bytes
+            }
+            try {
+                ChatServer.FrameCodec.readVarint(new ByteArrayInputStream(bytes));
+                check(false, "readVarint rejects " + Arrays.toString(bytes));
+            } catch (ProtocolException expected) {
+                // same limits on the stream path
+            }
+        }
+    }
+
+    private static byte[] varint(int value) {
+        ByteBuffer buf = ByteBuffer.allocate(5);
+        ChatServer.FrameCodec.putVarint(buf, value);
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    // the largest payload a frame can carry has to get through either engine
+    private static void largeFrame(String engine, int port) throws Exception {
+        try (BinaryClient receiver = new BinaryClient(port); BinaryClient sender = new BinaryClient(port)) {
+            Thread.sleep(300);
+            byte[] payload = new byte[ChatServer.FrameCodec.MAX_FRAME - 1];
+            Arrays.fill(payload, (byte) 'x');
+            sender.send(ByteBuffer.wrap(payload));
+            sender.flush();
+            byte[] got = receiver.receive();
+            check(got != null && Arrays.equals(got, payload), engine + " engine relays a " + payload.length + "-byte frame");
+        }
+    }
+
+    // text lines well past the nio engine's starting read buffer, up to the frame limit, reach text clients whole
+    private static void longLine(String engine, int port) throws Exception {
+        try (Socket receiver = new Socket("localhost", port); Socket sender = new Socket("localhost", port)) {
+            Thread.sleep(500);
+            // a dropped sender never reaches the receiver, so give up rather than wait forever
+            receiver.setSoTimeout(5000);
+            BufferedReader in = new BufferedReader(new InputStreamReader(receiver.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream out = sender.getOutputStream();
+            for (int length : new int[] {5000, ChatServer.FrameCodec.MAX_FRAME - 1}) {
+                String line = "y".repeat(length);
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                check(line.equals(in.readLine()), engine + " engine relays a " + length + "-character text line");
+            }
+        } catch (SocketTimeoutException e) {
+            check(false, engine + " engine relays long text lines");
+        }
+    }
+
+    // a frame is one message: its line breaks must not reach text clients as lines of their own
+    private static void lineBreaks(String engine, int port) throws Exception {
+        try (Socket receiver = new Socket("localhost", port); BinaryClient sender = new BinaryClient(port)) {
+            // silent through negotiation, so the receiver is taken for a text client
+            Thread.sleep(500);
+            BufferedReader in = new BufferedReader(new InputStreamReader(receiver.getInputStream(), StandardCharsets.UTF_8));
+            sender.send(StandardCharsets.UTF_8.encode("hi\n* joined admins"));
+            sender.send(StandardCharsets.UTF_8.encode("hi\r* joined admins"));
+            sender.send(StandardCharsets.UTF_8.encode("after"));
+            sender.flush();
+            check("after".equals(in.readLine()), engine + " engine refuses frames with line breaks");
+        }
+    }
+
+    private static void throughput(int messages, int port, String mode) throws Exception {
+        start(port, mode);
+        byte[] line = "a chat line of roughly the size people actually type, give or take".getBytes(StandardCharsets.UTF_8);
+        double text = run(messages, port, line, false);
+        double binary = run(messages, port, line, true);
+        System.out.printf("%s engine, %d messages of %d bytes: text %.0f msg/s, binary %.0f msg/s (%.2fx)%n",
+                mode.substring(2), messages, line.length, text, binary, binary / text);
+    }
+
+    // one sender and one receiver in the same mode; the rate is measured at the receiver
+    private static double run(int messages, int port, byte[] line, boolean binary) throws Exception {
+        long start;
+        if (binary) {
+            try (BinaryClient receiver = new BinaryClient(port); BinaryClient sender = new BinaryClient(port)) {
+                Thread.sleep(300);
+                start = System.nanoTime();
+                Thread writer = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < messages; i++) {
+                            sender.send(ByteBuffer.wrap(line));
+                        }
+                        sender.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                writer.start();
+                for (int i = 0; i < messages; i++) {
+                    if (receiver.receive() == null) throw new EOFException("receiver closed after " + i);
+                }
+                writer.join();
+            }
+        } else {
+            try (Socket receiver = new Socket("localhost", port); Socket sender = new Socket("localhost", port)) {
+                // text clients are recognised by staying silent through negotiation
+                Thread.sleep(500);
+                BufferedReader in = new BufferedReader(new InputStreamReader(receiver.getInputStream(), StandardCharsets.UTF_8));
+                OutputStream out = new BufferedOutputStream(sender.getOutputStream(), 64 * 1024);
+                start = System.nanoTime();
+                Thread writer = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < messages; i++) {
+                            out.write(line);
+                            out.write('\n');
+                        }
+                        out.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                writer.start();
+                for (int i = 0; i < messages; i++) {
+                    if (in.readLine() == null) throw new EOFException("receiver closed after " + i);
+                }
+                writer.join();
+            }
+        }
+        return messages / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static void start(int port, String mode) throws InterruptedException {
+        ChatServer server = new ChatServer(new String[] {mode, "--port=" + port, "--slow-consumer=backpressure", "--history=0"});
+        Thread t = new Thread(server::run, "server-" + port);
+        t.setDaemon(true);
+        t.start();
+        Thread.sleep(200);
+    }
+
+    // speaks the framed protocol: MAGIC on connect, then varint-length frames both ways
+    private static final class BinaryClient implements Closeable {
+        private final SocketChannel channel;
+        private final DataInputStream in;
+        private final ByteBuffer out = ByteBuffer.allocateDirect(128 * 1024);
+
+        BinaryClient(int port) throws IOException {
+            channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+            in = new DataInputStream(new BufferedInputStream(channel.socket().getInputStream()));
+            out.put((byte) ChatServer.FrameCodec.MAGIC);
+            flush();
+        }
+
+        void send(ByteBuffer payload) throws IOException {
+            ByteBuffer frame = ChatServer.FrameCodec.encode(ChatServer.FrameCodec.MESSAGE, payload);
+            if (out.remaining() < frame.remaining()) flush();
+            out.put(frame);
+        }
+
+        void flush() throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.clear();
+        }
+
+        // next chat payload, skipping notices; null at end of stream
+        byte[] receive() throws IOException {
+            int length;
+            while ((length = ChatServer.FrameCodec.readVarint(in)) >= 0) {
+                byte type = in.readByte();
+                byte[] payload = new byte[length - 1];
+                in.readFully(payload);
+                if (type == ChatServer.FrameCodec.MESSAGE) return payload;
+            }
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example;
+import java.util.*;
+import java.util.concurrent.*;
+
+// checks that IdGenerator hands out unique ids under contention, increasing within each thread, with
+// reserved blocks that never overlap and strings that sort like the ids; then times it against
+// UUID.randomUUID() on the same threads.
+// Usage: java com.example.IdGeneratorCheck [threads] [ids per thread]
+public class IdGeneratorCheck {
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        var ids = new OnlineBankingApp.IdGenerator();
+
+        long[][] out = new long[threads][perThread];
+        long generated = time(threads, t -> {
+            for (int i = 0; i < perThread; i++) out[t][i] = ids.next();
+        });
+        var seen = new HashSet<Long>(threads * perThread * 2);
+        boolean increasing = true;
+        for (long[] mine : out) {
+            for (int i = 0; i < mine.length; i++) {
+                if (i > 0 && mine[i] <= mine[i - 1]) increasing = false;
+                seen.add(mine[i]);
+            }
+        }
+        check(seen.size() == threads * perThread, "next() is unique across " + threads + " threads");
+        check(increasing, "next() increases within each thread");
+
+        // blocks of varying size interleaved with single ids, all from the same generator
+        long[][] blocks = new long[threads][];
+        time(threads, t -> {
+            blocks[t] = new long[1000];
+            for (int i = 0; i < blocks[t].length; i++) blocks[t][i] = ids.reserve(1 + i % 7);
+        });
+        var ranges = new TreeMap<Long, Long>();
+        for (long[] mine : blocks) {
+            for (int i = 0; i < mine.length; i++) ranges.put(mine[i], mine[i] + i % 7);
+        }
+        long previousEnd = Long.MIN_VALUE;
+        boolean disjoint = ranges.size() == threads * 1000;
+        for (var r : ranges.entrySet()) {
+            if (r.getKey() <= previousEnd) disjoint = false;
+            previousEnd = r.getValue();
+        }
+        check(disjoint, "reserve(n) blocks never overlap");
+        check(ids.next() > previousEnd && previousEnd > out[0][perThread - 1], "ids keep increasing after blocks");
+
+        long id = ids.next();
+        check(OnlineBankingApp.IdGenerator.parse(OnlineBankingApp.IdGenerator.format(id)) == id, "format and parse round trip");
+        check(OnlineBankingApp.IdGenerator.format(5).compareTo(OnlineBankingApp.IdGenerator.format(1L << 40)) < 0, "formatted ids sort numerically");
+        ids.advancePast(id + 1_000_000);
+        check(ids.next() > id + 1_000_000, "advancePast moves past restored ids");
+        if (failures > 0) {
+            System.out.println("FAILED: " + failures + " check(s)");
+            System.exit(1);
+        }
+        System.out.println("Id checks OK");
+
+        long uuids = time(threads, t -> {
+            for (int i = 0; i < perThread; i++) UUID.randomUUID();
+        });
+        long total = (long) threads * perThread;
+        System.out.printf("%d ids on %d threads: IdGenerator %.1f ns/id (%d ms), UUID.randomUUID %.1f ns/id (%d ms)%n",
+                total, threads, (double) generated / total, generated / 1_000_000, (double) uuids / total, uuids / 1_000_000);
+    }
+
+    private interface Work {
+        void run(int thread);
+    }
+
+    // nanoseconds from start until every thread has finished
+    private static long time(int threads, Work work) throws Exception {
+        var pool = Executors.newFixedThreadPool(threads);
+        var ready = new CountDownLatch(threads);
+        var go = new CountDownLatch(1);
+        var done = new ArrayList<Future<?>>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            done.add(pool.submit(() -> {
+                ready.countDown();
+                go.await();
+                work.run(thread);
+                return null;
+            }));
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        for (var f : done) {
+            f.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        return elapsed;
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) {
+            System.out.println("FAILED: " + what);
+            failures++;
+        }
+    }
+}
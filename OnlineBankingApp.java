@@ -1,39 +1,107 @@
 package com.example;
 
 
+import javafx.animation.PauseTransition;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.*;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.WeakChangeListener;
 import javafx.collections.*;
-import javafx.collections.transformation.FilteredList;
 import javafx.geometry.*;
 import javafx.scene.*;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.*;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import javafx.util.StringConverter;
 
+import java.io.*;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
 
 public class OnlineBankingApp extends Application {
 
-    private final BankService bank = new BankService();
+    private static final int HISTORY_PAGE_SIZE = 100;
+    private static final int SEARCH_LIMIT = 1000;
+    private static final int SEARCH_DEBOUNCE_MS = 200;
+
+    private final BankService bank = createBank();
+    private final FxBankView view = new FxBankView(bank);
+    // screens go through this rather than bank, so slow service calls never run on the FX thread
+    private final AsyncBank async = new AsyncBank(bank, 2);
+    // -Dbank.fx.stall-ms=<n> reports FX events that hold the thread longer than n ms; 0 turns it off
+    private final FxStallMonitor stallMonitor = new FxStallMonitor(Long.getLong("bank.fx.stall-ms", 200));
     private Stage primaryStage;
+    private Session session;
 
     @Override
     public void start(Stage stage) {
         this.primaryStage = stage;
+        stallMonitor.start();
         stage.setTitle("JavaFX Online Banking");
         stage.setScene(buildLoginScene());
         stage.show();
     }
 
+    @Override
+    public void stop() throws Exception {
+        stallMonitor.close();
+        async.close();
+        bank.close();
+    }
+
+    // -Dbank.journal=<file> makes transfers durable; -Dbank.journal.window-us sets how long a group commit gathers
+    // and -Dbank.snapshot.interval-s how often balances are snapshotted beside the journal
+    private static BankService createBank() {
+        var path = System.getProperty("bank.journal");
+        if (path == null) return new BankService();
+        try {
+            return new BankService(new Journal(Path.of(path), Long.getLong("bank.journal.window-us", 1000)),
+                    Long.getLong("bank.snapshot.interval-s", 60));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     private Scene buildLoginScene() {
         var title = new Label("Welcome to Online Banking");
         title.getStyleClass().add("title");
@@ -46,12 +114,18 @@ public class OnlineBankingApp extends Application {
         var loginBtn = new Button("Sign in");
         loginBtn.setDefaultButton(true);
         loginBtn.setOnAction(e -> {
-            var user = bank.login(userField.getText().trim(), passField.getText());
-            if (user != null) {
-                primaryStage.setScene(buildMainScene(user));
-            } else {
-                showError("Login failed", "Invalid username or password.");
-            }
+            loginBtn.setDisable(true);
+            async.login(userField.getText().trim(), passField.getText()).whenComplete((s, ex) -> {
+                loginBtn.setDisable(false);
+                if (ex != null) {
+                    showError("Login failed", messageOf(ex));
+                } else if (s != null) {
+                    session = s;
+                    primaryStage.setScene(buildMainScene(s.getUser()));
+                } else {
+                    showError("Login failed", "Invalid username or password.");
+                }
+            });
         });
 
         var form = new VBox(10, title, userField, passField, loginBtn);
@@ -89,15 +163,18 @@ public class OnlineBankingApp extends Application {
 
         var totalBalance = new Label();
         totalBalance.getStyleClass().add("balance");
-        totalBalance.textProperty().bind(Bindings.createStringBinding(() ->
-                "Total: " + Money.format(bank.totalBalance(user.getUsername())),
-                bank.accountsProperty(user.getUsername())));
+        var total = view.totalProperty(session);
+        totalBalance.textProperty().bind(Bindings.createStringBinding(() -> "Total: " + Money.format(total.get()), total));
 
         var spacer = new Region();
         HBox.setHgrow(spacer, Priority.ALWAYS);
 
         var logout = new Button("Logout");
-        logout.setOnAction(e -> primaryStage.setScene(buildLoginScene()));
+        logout.setOnAction(e -> {
+            if (session != null) async.logout(session.getToken());
+            session = null;
+            primaryStage.setScene(buildLoginScene());
+        });
 
         var bar = new HBox(16, hello, totalBalance, spacer, logout);
         bar.setPadding(new Insets(16));
@@ -108,7 +185,7 @@ public class OnlineBankingApp extends Application {
 
     private Node buildAccountsView(User user) {
         var table = new TableView<Account>();
-        table.setItems(bank.listAccounts(user.getUsername()));
+        table.setItems(view.accounts(session));
 
         var colName = new TableColumn<Account, String>("Account");
         colName.setCellValueFactory(new PropertyValueFactory<>("name"));
@@ -138,15 +215,16 @@ public class OnlineBankingApp extends Application {
     }
 
     private Node buildTransferView(User user) {
+        var token = session.getToken();
         var fromCbx = new ComboBox<Account>();
         fromCbx.setPromptText("From account");
-        fromCbx.setItems(bank.listAccounts(user.getUsername()));
-        fromCbx.setConverter(Account.accountConverter());
+        async.listAccounts(token).thenAccept(fromCbx.getItems()::setAll);
+        fromCbx.setConverter(FxBankView.accountConverter());
 
         var toCbx = new ComboBox<Account>();
         toCbx.setPromptText("To account or payee");
-        toCbx.setItems(bank.listAllPayableAccounts(user.getUsername()));
-        toCbx.setConverter(Account.accountConverter());
+        async.listAllPayableAccounts(token).thenAccept(toCbx.getItems()::setAll);
+        toCbx.setConverter(FxBankView.accountConverter());
 
         var amtField = new TextField();
         amtField.setPromptText("Amount (e.g., 250.00)");
@@ -155,23 +233,28 @@ public class OnlineBankingApp extends Application {
 
         var transferBtn = new Button("Send");
         transferBtn.setDefaultButton(true);
+        var sending = new SimpleBooleanProperty();
 
         transferBtn.disableProperty().bind(Bindings.createBooleanBinding(() ->
-                        fromCbx.getValue() == null || toCbx.getValue() == null ||
+                        sending.get() || fromCbx.getValue() == null || toCbx.getValue() == null ||
                                 fromCbx.getValue().getId().equals(Optional.ofNullable(toCbx.getValue()).map(Account::getId).orElse("")) ||
                                 !Money.isValid(amtField.getText()),
-                fromCbx.valueProperty(), toCbx.valueProperty(), amtField.textProperty()));
+                sending, fromCbx.valueProperty(), toCbx.valueProperty(), amtField.textProperty()));
 
         transferBtn.setOnAction(e -> {
-            try {
-                var amount = Money.parse(amtField.getText());
-                bank.transfer(fromCbx.getValue().getId(), toCbx.getValue().getId(), amount, descField.getText());
-                showInfo("Transfer successful", Money.format(amount) + " sent to " + toCbx.getValue().getName());
+            var amount = Money.parse(amtField.getText());
+            var to = toCbx.getValue();
+            sending.set(true);
+            async.transfer(token, fromCbx.getValue().getId(), to.getId(), amount, descField.getText()).whenComplete((ok, ex) -> {
+                sending.set(false);
+                if (ex != null) {
+                    showError("Transfer failed", messageOf(ex));
+                    return;
+                }
+                showInfo("Transfer successful", Money.format(amount) + " sent to " + to.getName());
                 amtField.clear();
                 descField.clear();
-            } catch (IllegalArgumentException ex) {
-                showError("Transfer failed", ex.getMessage());
-            }
+            });
         });
 
         var form = new GridPane();
@@ -190,25 +273,49 @@ public class OnlineBankingApp extends Application {
     }
 
     private Node buildHistoryView(User user) {
+        var token = session.getToken();
         var table = new TableView<Transaction>();
         var search = new TextField();
         search.setPromptText("Search description or account...");
 
-        var all = bank.transactionsForUser(user.getUsername());
-        var filtered = new FilteredList<>(all, t -> true);
-        search.textProperty().addListener((obs, old, val) -> {
-            String q = Optional.ofNullable(val).orElse("").toLowerCase();
-            filtered.setPredicate(t ->
-                    t.getDescription().toLowerCase().contains(q) ||
-                            t.getFromAccountId().toLowerCase().contains(q) ||
-                            t.getToAccountId().toLowerCase().contains(q)
-            );
+        // only the pages around the viewport are fetched and kept; new transfers grow it from the top
+        var rows = new PagedHistoryList(async, token, HISTORY_PAGE_SIZE);
+
+        ChangeListener<Transaction> onTransfer = (obs, old, t) -> {
+            if (t != null && bank.involvesUser(t, user.getUsername())) rows.refresh();
+        };
+        view.lastTransactionProperty().addListener(new WeakChangeListener<>(onTransfer));
+        ChangeListener<List<Transaction>> onBatch = (obs, old, batch) -> {
+            if (batch != null && batch.stream().anyMatch(t -> bank.involvesUser(t, user.getUsername()))) rows.refresh();
+        };
+        view.lastBatchProperty().addListener(new WeakChangeListener<>(onBatch));
+        ChangeListener<Set<String>> onHistoryLoaded = (obs, old, users) -> {
+            if (users != null && users.contains(user.getUsername())) rows.reload();
+        };
+        view.historyLoadedProperty().addListener(new WeakChangeListener<>(onHistoryLoaded));
+
+        // a query runs against the service's search index off the FX thread once typing pauses;
+        // only the newest query's results reach the table, and clearing it brings the paged rows back
+        var generation = new long[1];
+        var debounce = new PauseTransition(Duration.millis(SEARCH_DEBOUNCE_MS));
+        debounce.setOnFinished(e -> {
+            var q = search.getText() == null ? "" : search.getText().trim();
+            long gen = ++generation[0];
+            if (q.isEmpty()) {
+                table.setItems(rows);
+                return;
+            }
+            async.searchHistory(token, q, SEARCH_LIMIT).thenAccept(hits -> {
+                if (gen == generation[0]) table.setItems(FXCollections.observableArrayList(hits));
+            });
         });
+        search.textProperty().addListener((obs, old, val) -> debounce.playFromStart());
 
-        table.setItems(filtered);
+        table.setItems(rows);
 
         var colWhen = new TableColumn<Transaction, String>("Date");
-        colWhen.setCellValueFactory(cd -> new SimpleStringProperty(cd.getValue().getWhenFormatted()));
+        // rows whose page is still loading have no transaction yet
+        colWhen.setCellValueFactory(cd -> cd.getValue() == null ? null : new SimpleStringProperty(cd.getValue().getWhenFormatted()));
         colWhen.setPrefWidth(180);
 
         var colFrom = new TableColumn<Transaction, String>("From");
@@ -220,7 +327,7 @@ public class OnlineBankingApp extends Application {
         colTo.setPrefWidth(180);
 
         var colAmt = new TableColumn<Transaction, String>("Amount");
-        colAmt.setCellValueFactory(cd -> new SimpleStringProperty(Money.format(cd.getValue().getAmount())));
+        colAmt.setCellValueFactory(cd -> cd.getValue() == null ? null : new SimpleStringProperty(cd.getValue().getAmountFormatted()));
         colAmt.setPrefWidth(140);
 
         var colDesc = new TableColumn<Transaction, String>("Description");
@@ -230,8 +337,19 @@ public class OnlineBankingApp extends Application {
         table.getColumns().addAll(colWhen, colFrom, colTo, colAmt, colDesc);
         table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_FLEX_LAST_COLUMN);
 
-        var box = new VBox(10, search, table);
+        // a count or page that failed, such as once the session has expired, instead of rows that never fill in
+        var error = new Label();
+        error.getStyleClass().add("error");
+        error.textProperty().bind(rows.errorProperty());
+        error.visibleProperty().bind(rows.errorProperty().isNotNull());
+        error.managedProperty().bind(error.visibleProperty());
+
+        var box = new VBox(10, search, error, table);
         box.setPadding(new Insets(16));
+        // the adapter only holds the listener weakly; the view keeps it alive for as long as it exists
+        box.getProperties().put("transferListener", onTransfer);
+        box.getProperties().put("batchListener", onBatch);
+        box.getProperties().put("historyLoadedListener", onHistoryLoaded);
         return box;
     }
 
@@ -250,10 +368,15 @@ public class OnlineBankingApp extends Application {
                 changePwdField.textProperty(), confirmField.textProperty()));
 
         saveBtn.setOnAction(e -> {
-            bank.changePassword(user.getUsername(), changePwdField.getText());
-            changePwdField.clear();
-            confirmField.clear();
-            showInfo("Password updated", "Your password has been changed.");
+            async.changePassword(session.getToken(), changePwdField.getText()).whenComplete((ok, ex) -> {
+                if (ex != null) {
+                    showError("Password not changed", messageOf(ex));
+                    return;
+                }
+                changePwdField.clear();
+                confirmField.clear();
+                showInfo("Password updated", "Your password has been changed.");
+            });
         });
 
         var grid = new GridPane();
@@ -269,6 +392,12 @@ public class OnlineBankingApp extends Application {
         return wrap;
     }
 
+    // futures from AsyncBank fail with the service's exception wrapped in a CompletionException
+    private static String messageOf(Throwable ex) {
+        var cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        return cause.getMessage() != null ? cause.getMessage() : cause.toString();
+    }
+
     private void showError(String title, String msg) {
         var a = new Alert(Alert.AlertType.ERROR, msg, ButtonType.OK);
         a.setHeaderText(title);
@@ -287,6 +416,7 @@ public class OnlineBankingApp extends Application {
                 .title { -fx-font-size: 24px; -fx-font-weight: bold; }
                 .headline { -fx-font-size: 18px; -fx-font-weight: 600; }
                 .balance { -fx-font-size: 16px; -fx-text-fill: #0a6; }
+                .error { -fx-text-fill: #c00; }
                 .topbar { -fx-background-color: linear-gradient(to right, #f9f9ff, #eef8ff); }
                 .button { -fx-background-radius: 12; -fx-padding: 8 16; }
                 .text-field, .combo-box { -fx-background-radius: 10; }
@@ -294,172 +424,1767 @@ public class OnlineBankingApp extends Application {
     }
 
     // ======== Models ========
+    // passwords live only as hashes in the service's CredentialStore
     public static class User {
         private final String username;
-        private String password; // demo only
         private final String fullName;
 
-        public User(String username, String password, String fullName) {
-            this.username = username; this.password = password; this.fullName = fullName;
+        public User(String username, String fullName) {
+            this.username = username; this.fullName = fullName;
         }
         public String getUsername() { return username; }
-        public String getPassword() { return password; }
-        public void setPassword(String password) { this.password = password; }
         public String getFullName() { return fullName; }
     }
 
-    public static class Account {
-        private final StringProperty id = new SimpleStringProperty();
-        private final StringProperty ownerUsername = new SimpleStringProperty();
-        private final StringProperty name = new SimpleStringProperty();
-        private final StringProperty type = new SimpleStringProperty();
-        private final ObjectProperty<BigDecimal> balance = new SimpleObjectProperty<>(BigDecimal.ZERO);
-
-        public Account(String id, String ownerUsername, String name, String type, BigDecimal balance) {
-            setId(id); setOwnerUsername(ownerUsername); setName(name); setType(type); setBalance(balance);
-        }
-        public String getId() { return id.get(); }
-        public void setId(String v) { id.set(v); }
-        public StringProperty idProperty() { return id; }
-        public String getOwnerUsername() { return ownerUsername.get(); }
-        public void setOwnerUsername(String v) { ownerUsername.set(v); }
-        public StringProperty ownerUsernameProperty() { return ownerUsername; }
-        public String getName() { return name.get(); }
-        public void setName(String v) { name.set(v); }
-        public StringProperty nameProperty() { return name; }
-        public String getType() { return type.get(); }
-        public void setType(String v) { type.set(v); }
-        public StringProperty typeProperty() { return type; }
-        public BigDecimal getBalance() { return balance.get(); }
-        public void setBalance(BigDecimal v) { balance.set(v); }
-        public ObjectProperty<BigDecimal> balanceProperty() { return balance; }
+    // What a successful login hands back; later calls present the token instead of the password.
+    public static class Session {
+        private final String token;
+        private final User user;
 
-        public static StringConverter<Account> accountConverter() {
-            return new StringConverter<>() {
-                @Override public String toString(Account a) { return a == null ? "" : a.getName() + " (" + a.getId() + ")"; }
-                @Override public Account fromString(String s) { return null; }
-            };
+        public Session(String token, User user) {
+            this.token = token; this.user = user;
         }
+        public String getToken() { return token; }
+        public User getUser() { return user; }
+    }
+
+    // Plain fields only: the core ledger keeps no JavaFX properties, FxBankView adapts what is on screen.
+    // What BankService writes is package-private rather than private: private access between nested
+    // classes resolves the nest host, which would load OnlineBankingApp and with it JavaFX.
+    public static class Account {
+        private final String id;
+        private volatile String ownerUsername;
+        private final String name;
+        private final String type;
+        // in paise, written under the service's stripe lock; volatile so readers on other threads see the latest value
+        private volatile long balance;
+        // seq of the last transfer applied to balance; guarded by the stripe lock, so snapshots can copy
+        // one stripe at a time and replay can tell which records a copied balance already includes
+        long appliedSeq;
+
+        public Account(String id, String ownerUsername, String name, String type, long balance) {
+            this.id = id; this.ownerUsername = ownerUsername; this.name = name; this.type = type; this.balance = balance;
+        }
+        public String getId() { return id; }
+        public String getOwnerUsername() { return ownerUsername; }
+        void setOwnerUsername(String v) { ownerUsername = v; }
+        public String getName() { return name; }
+        public String getType() { return type; }
+        public long getBalance() { return balance; }
+        void setBalance(long v) { balance = v; }
     }
 
     public static class Transaction {
+        private static final DateTimeFormatter WHEN_FORMAT = DateTimeFormatter.ofPattern("dd MMM yyyy, HH:mm");
+
+        private final long seq;
         private final String id;
         private final LocalDateTime when;
         private final String fromAccountId;
         private final String toAccountId;
-        private final BigDecimal amount;
+        private final long amount;
         private final String description;
+        // display forms, built the first time a cell shows them; a racing second build is harmless
+        private String whenFormatted;
+        private String amountFormatted;
 
-        public Transaction(String id, LocalDateTime when, String fromAccountId, String toAccountId, BigDecimal amount, String description) {
-            this.id = id; this.when = when; this.fromAccountId = fromAccountId; this.toAccountId = toAccountId; this.amount = amount; this.description = description;
+        public Transaction(long seq, String id, LocalDateTime when, String fromAccountId, String toAccountId, long amount, String description) {
+            this.seq = seq; this.id = id; this.when = when; this.fromAccountId = fromAccountId; this.toAccountId = toAccountId; this.amount = amount; this.description = description;
         }
+        public long getSeq() { return seq; }
         public String getId() { return id; }
         public LocalDateTime getWhen() { return when; }
         public String getFromAccountId() { return fromAccountId; }
         public String getToAccountId() { return toAccountId; }
-        public BigDecimal getAmount() { return amount; }
+        public long getAmount() { return amount; }
         public String getDescription() { return description == null ? "" : description; }
-        public String getWhenFormatted() { return when.format(DateTimeFormatter.ofPattern("dd MMM yyyy, HH:mm")); }
+        public String getWhenFormatted() {
+            var s = whenFormatted;
+            if (s == null) whenFormatted = s = WHEN_FORMAT.format(when);
+            return s;
+        }
+        public String getAmountFormatted() {
+            var s = amountFormatted;
+            if (s == null) amountFormatted = s = Money.format(amount);
+            return s;
+        }
+    }
+
+    // One leg of a transferBatch; amount is in paise.
+    public static class TransferRequest {
+        private final String fromAccountId;
+        private final String toAccountId;
+        private final long amount;
+        private final String description;
+
+        public TransferRequest(String fromAccountId, String toAccountId, long amount, String description) {
+            this.fromAccountId = fromAccountId; this.toAccountId = toAccountId; this.amount = amount; this.description = description;
+        }
+        public String getFromAccountId() { return fromAccountId; }
+        public String getToAccountId() { return toAccountId; }
+        public long getAmount() { return amount; }
+        public String getDescription() { return description; }
+    }
+
+    // What transferBatch did with each request, by index: the transaction made, or why it was refused.
+    public static class BatchResult {
+        private final List<Transaction> transactions;
+        private final List<String> errors;
+        private final List<Transaction> committed;
+
+        public BatchResult(List<Transaction> transactions, List<String> errors, List<Transaction> committed) {
+            this.transactions = transactions; this.errors = errors; this.committed = committed;
+        }
+        public int size() { return transactions.size(); }
+        public boolean isCommitted(int i) { return transactions.get(i) != null; }
+        public Transaction getTransaction(int i) { return transactions.get(i); }
+        public String getError(int i) { return errors.get(i); }
+        public List<Transaction> getCommitted() { return committed; }
+    }
+
+    // One page of history, newest first. Pass getNextBefore() back in to fetch the page after it.
+    public static class HistoryPage {
+        public static final long NEWEST = Long.MAX_VALUE;
+        private final List<Transaction> items;
+        private final long nextBefore;
+
+        public HistoryPage(List<Transaction> items, long nextBefore) {
+            this.items = items; this.nextBefore = nextBefore;
+        }
+        public List<Transaction> getItems() { return items; }
+        public long getNextBefore() { return nextBefore; }
+        public boolean hasMore() { return nextBefore > 0; }
+    }
+
+    // Reported by BankService after each committed transfer, on the thread that made it.
+    public interface BankListener {
+        void onTransfer(Transaction t, Account from, Account to);
+
+        // a committed batch in seq order, with the accounts it touched; by default one transfer at a time
+        default void onBatch(List<Transaction> committed, Map<String, Account> touched) {
+            for (var t : committed) onTransfer(t, touched.get(t.getFromAccountId()), touched.get(t.getToAccountId()));
+        }
+
+        // once per user whose total moved, after the transfer or batch that moved it
+        default void onTotalChanged(String username, long total) {}
+
+        // once, after history from before the snapshot was merged in for these users; their
+        // historyRange positions have shifted, so anything paging by position must start over
+        default void onHistoryLoaded(Set<String> usernames) {}
     }
 
     // ======== Money helpers ========
+    // Amounts are whole paise in a long; BigDecimal only appears when converting user input.
     public static class Money {
-        public static String format(BigDecimal bd) {
-            if (bd == null) return "₹0.00";
-            return "₹" + bd.setScale(2, RoundingMode.HALF_UP).toPlainString();
+        // one builder per thread, reused by every format call
+        private static final ThreadLocal<StringBuilder> BUILDER = ThreadLocal.withInitial(() -> new StringBuilder(32));
+
+        public static String format(long paise) {
+            var sb = BUILDER.get();
+            sb.setLength(0);
+            return appendTo(sb, paise).toString();
+        }
+        public static StringBuilder appendTo(StringBuilder sb, long paise) {
+            sb.append('₹');
+            if (paise < 0) sb.append('-');
+            long rupees = Math.abs(paise / 100), rem = Math.abs(paise % 100);
+            sb.append(rupees).append('.');
+            if (rem < 10) sb.append('0');
+            return sb.append(rem);
         }
         public static boolean isValid(String s) {
-            try { return parse(s).compareTo(BigDecimal.ZERO) > 0; } catch (Exception e) { return false; }
+            try { return parse(s) > 0; } catch (Exception e) { return false; }
         }
-        public static BigDecimal parse(String s) {
-            var x = new BigDecimal(s.trim());
-            if (x.scale() > 2) x = x.setScale(2, RoundingMode.HALF_UP);
-            return x;
+        // throws ArithmeticException if the amount does not fit in a long of paise
+        public static long parse(String s) {
+            return fromDecimal(new BigDecimal(s.trim()));
+        }
+        public static long fromDecimal(BigDecimal x) {
+            return x.setScale(2, RoundingMode.HALF_UP).movePointRight(2).longValueExact();
+        }
+        public static BigDecimal toDecimal(long paise) {
+            return BigDecimal.valueOf(paise, 2);
         }
     }
 
     // ======== Service & Data ========
-    public static class BankService {
-        private final ObservableMap<String, User> users = FXCollections.observableHashMap();
-        private final ObservableMap<String, Account> accounts = FXCollections.observableHashMap();
-        private final ObservableList<Transaction> transactions = FXCollections.observableArrayList();
+    public static class BankService implements Closeable {
+        private final Map<String, User> users = new ConcurrentHashMap<>();
+        // -Dbank.pbkdf2.iterations sets the hash cost and -Dbank.session.ttl-s how long an idle session lives
+        private final CredentialStore credentials = new CredentialStore(Integer.getInteger("bank.pbkdf2.iterations", 210_000));
+        private final SessionCache sessions = new SessionCache(TimeUnit.SECONDS.toNanos(Long.getLong("bank.session.ttl-s", 900)));
+        private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+        // owner username -> that user's accounts, kept in step by addAccount and changeOwner
+        private final Map<String, List<Account>> accountsByOwner = new ConcurrentHashMap<>();
+        private final List<BankListener> listeners = new CopyOnWriteArrayList<>();
+        // owner username -> sum of their balances, moved along with the balances so reads are O(1)
+        private final Map<String, AtomicLong> totalsByOwner = new ConcurrentHashMap<>();
+        // history in seq order, per account and per owner; each list is guarded by its own monitor
+        private final Map<String, List<Transaction>> transactionsByAccount = new ConcurrentHashMap<>();
+        private final Map<String, List<Transaction>> transactionsByOwner = new ConcurrentHashMap<>();
+        private final Map<String, SearchIndex> searchByOwner = new ConcurrentHashMap<>();
+        // seqs double as time-ordered ids, history cursors and journal positions
+        private final IdGenerator ids = new IdGenerator();
+        // an account's balance is only read-then-written under its stripe's lock
+        private static final int LOCK_STRIPES = 64;
+        private final ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
+        // each stripe's accounts, guarded by that stripe's lock, so a snapshot can copy them stripe by stripe
+        private final List<List<Account>> accountsByStripe = new ArrayList<>(LOCK_STRIPES);
+        // null when running in memory only
+        private final Journal journal;
+        private final Path snapshotPath;
+        private final ScheduledExecutorService snapshotter;
+        private long lastSnapshotOffset = -1; // touched only by the snapshotter, then by close()
+
+        public BankService() {
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = new ReentrantLock();
+                accountsByStripe.add(new ArrayList<>());
+            }
+            journal = null;
+            snapshotPath = null;
+            snapshotter = null;
+            seedAccounts();
+            seedTransfers();
+        }
 
-        public BankService() { seed(); }
+        // restores balances from the latest snapshot and replays only the journal after it; the sample
+        // transfers are only made on a fresh journal
+        public BankService(Journal journal, long snapshotIntervalSeconds) throws IOException {
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = new ReentrantLock();
+                accountsByStripe.add(new ArrayList<>());
+            }
+            this.journal = journal;
+            snapshotPath = journal.path().resolveSibling(journal.path().getFileName() + ".snap");
+            seedAccounts();
+
+            var snap = Snapshot.load(snapshotPath);
+            long from = 0;
+            if (snap != null && snap.getJournalOffset() <= journal.size()) {
+                for (int i = 0; i < snap.size(); i++) {
+                    var a = accounts.get(snap.getAccountId(i));
+                    if (a == null) continue;
+                    adjustTotal(a.getOwnerUsername(), snap.getBalance(i) - a.getBalance());
+                    a.setBalance(snap.getBalance(i));
+                    a.appliedSeq = snap.getAppliedSeq(i);
+                }
+                ids.advancePast(snap.getLastSeq());
+                from = lastSnapshotOffset = snap.getJournalOffset();
+            }
+            int replayed = journal.replay(from, this::applyReplayed);
+            if (from == 0 && replayed == 0) seedTransfers();
+            if (from > 0) loadOlderHistory(from);
+
+            snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+                var t = new Thread(r, "bank-snapshot");
+                t.setDaemon(true);
+                return t;
+            });
+            snapshotter.scheduleWithFixedDelay(this::snapshotQuietly, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+        }
 
-        public User login(String username, String password) {
-            var u = users.get(username);
-            return (u != null && Objects.equals(u.getPassword(), password)) ? u : null;
+        // writes a last snapshot so the next start has nothing to replay
+        @Override
+        public void close() throws IOException {
+            if (journal == null) return;
+            snapshotter.shutdown();
+            try {
+                snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                snapshot();
+            } finally {
+                journal.close();
+            }
+        }
+
+        // Copies one stripe at a time, so a transfer waits at most for its own stripe's copy. A record
+        // queued before the offset is taken is applied before its stripes unlock, so every copy includes
+        // it; later records may or may not be included, and each account's appliedSeq tells replay which.
+        public synchronized void snapshot() throws IOException {
+            if (journal == null) throw new IllegalStateException("No journal to snapshot against");
+            long offset = journal.endOffset();
+            if (offset == lastSnapshotOffset) return;
+            int count = 0, capacity = accounts.size() + 16;
+            var accountIds = new String[capacity];
+            var balances = new long[capacity];
+            var appliedSeqs = new long[capacity];
+            for (int s = 0; s < stripes.length; s++) {
+                stripes[s].lock();
+                try {
+                    var owned = accountsByStripe.get(s);
+                    if (count + owned.size() > accountIds.length) {
+                        capacity = (count + owned.size()) * 2;
+                        accountIds = Arrays.copyOf(accountIds, capacity);
+                        balances = Arrays.copyOf(balances, capacity);
+                        appliedSeqs = Arrays.copyOf(appliedSeqs, capacity);
+                    }
+                    for (var a : owned) {
+                        accountIds[count] = a.getId();
+                        balances[count] = a.getBalance();
+                        appliedSeqs[count++] = a.appliedSeq;
+                    }
+                } finally {
+                    stripes[s].unlock();
+                }
+            }
+            long seq = ids.last();
+            // the copies may include records queued after the offset; they must be on disk before a
+            // snapshot that includes them is, or a crash could keep one side of a transfer
+            journal.awaitDurable(journal.lastTicket());
+            new Snapshot(offset, seq, count, accountIds, balances, appliedSeqs).write(snapshotPath);
+            lastSnapshotOffset = offset;
+        }
+
+        private void snapshotQuietly() {
+            try {
+                snapshot();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Snapshot failed: " + e);
+            }
+        }
+
+        // history from before the snapshot is not needed for balances, so it is read in the background
+        private void loadOlderHistory(long upTo) {
+            var t = new Thread(() -> {
+                var byAccount = new HashMap<String, List<Transaction>>();
+                var byOwner = new HashMap<String, List<Transaction>>();
+                try {
+                    journal.scan(0, upTo, tx -> {
+                        var from = accounts.get(tx.getFromAccountId());
+                        var to = accounts.get(tx.getToAccountId());
+                        if (from == null || to == null) return;
+                        byAccount.computeIfAbsent(from.getId(), k -> new ArrayList<>()).add(tx);
+                        if (to != from) byAccount.computeIfAbsent(to.getId(), k -> new ArrayList<>()).add(tx);
+                        byOwner.computeIfAbsent(from.getOwnerUsername(), k -> new ArrayList<>()).add(tx);
+                        if (!to.getOwnerUsername().equals(from.getOwnerUsername())) {
+                            byOwner.computeIfAbsent(to.getOwnerUsername(), k -> new ArrayList<>()).add(tx);
+                        }
+                    });
+                } catch (ClosedChannelException e) {
+                    return; // shut down before it finished
+                } catch (IOException e) {
+                    System.err.println("Could not load older history: " + e);
+                    return;
+                }
+                byAccount.forEach((id, older) -> mergeOlder(transactionsByAccount.computeIfAbsent(id, k -> new ArrayList<>()), older));
+                byOwner.forEach((owner, older) -> {
+                    mergeOlder(transactionsByOwner.computeIfAbsent(owner, k -> new ArrayList<>()), older);
+                    var index = searchByOwner.computeIfAbsent(owner, k -> new SearchIndex());
+                    for (var tx : older) index.add(tx);
+                });
+                if (!byOwner.isEmpty()) {
+                    for (var l : listeners) l.onHistoryLoaded(byOwner.keySet());
+                }
+            }, "bank-history-loader");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        // journal order is nearly seq order, but transfers on other stripes can straddle the snapshot
+        private static void mergeOlder(List<Transaction> list, List<Transaction> older) {
+            older.sort(Comparator.comparingLong(Transaction::getSeq));
+            synchronized (list) {
+                var merged = new ArrayList<Transaction>(list.size() + older.size());
+                int i = 0, j = 0;
+                while (i < older.size() && j < list.size()) {
+                    merged.add(older.get(i).getSeq() < list.get(j).getSeq() ? older.get(i++) : list.get(j++));
+                }
+                merged.addAll(older.subList(i, older.size()));
+                merged.addAll(list.subList(j, list.size()));
+                list.clear();
+                list.addAll(merged);
+            }
         }
 
-        public void changePassword(String username, String newPass) {
+        // the one expensive call: a full password hash, after which the session token is an O(1) lookup
+        public Session login(String username, String password) {
             var u = users.get(username);
-            if (u != null) u.setPassword(newPass);
+            if (!credentials.verify(username, password.toCharArray()) || u == null) return null;
+            return sessions.open(u);
         }
 
-        public ObservableList<Account> listAccounts(String username) {
-            return accounts.values().stream()
-                    .filter(a -> a.getOwnerUsername().equals(username))
-                    .collect(Collectors.toCollection(FXCollections::observableArrayList));
+        // null once the session has expired or been logged out
+        public User userFor(String token) {
+            var s = sessions.lookup(token);
+            return s == null ? null : s.getUser();
         }
 
-        public ObservableList<Account> listAllPayableAccounts(String username) {
+        // every per-user call goes through here: the token, not a username the caller chose, says whose data it is.
+        // After a journal failure the balances may include transfers that were never made durable, so
+        // nothing is read or written any more; a restart recovers from what is on disk.
+        private String requireUser(String token) {
+            if (journal != null) journal.checkAvailable();
+            var u = userFor(token);
+            if (u == null) throw new IllegalStateException("Session expired, please sign in again");
+            return u.getUsername();
+        }
+
+        public void logout(String token) {
+            sessions.close(token);
+        }
+
+        // signs out the user's other sessions; the one that changed the password stays valid
+        public void changePassword(String token, String newPass) {
+            var username = requireUser(token);
+            credentials.set(username, newPass.toCharArray());
+            sessions.closeAllFor(username, token);
+        }
+
+        public SessionCache getSessions() { return sessions; }
+
+        public List<Account> listAccounts(String token) {
+            return List.copyOf(ownedBy(requireUser(token)));
+        }
+
+        private List<Account> ownedBy(String username) {
+            return accountsByOwner.getOrDefault(username, List.of());
+        }
+
+        public List<Account> listAllPayableAccounts(String token) {
+            requireUser(token);
             // include user's own accounts + known payees (other users' accounts)
             return accounts.values().stream()
                     .filter(a -> true) // in demo, allow all accounts
-                    .collect(Collectors.toCollection(FXCollections::observableArrayList));
+                    .collect(Collectors.toList());
+        }
+
+        public long totalBalance(String token) {
+            return totalOf(requireUser(token));
+        }
+
+        // for the adapter, which learns about owners from service events rather than from a session
+        final long totalOf(String username) {
+            var total = totalsByOwner.get(username);
+            return total == null ? 0 : total.get();
         }
 
-        public BigDecimal totalBalance(String username) {
-            return listAccounts(username).stream()
-                    .map(Account::getBalance)
-                    .reduce(BigDecimal.ZERO, BigDecimal::add);
+        private void adjustTotal(String owner, long delta) {
+            if (owner != null && delta != 0) totalsByOwner.computeIfAbsent(owner, k -> new AtomicLong()).addAndGet(delta);
         }
 
-        public ReadOnlyObjectProperty<ObservableMap<String, Account>> accountsProperty(String username) {
-            // A crude binding handle: we return a property whose value changes when any account balance changes.
-            // For demo we just wrap the map itself.
-            return new SimpleObjectProperty<>(accounts);
+        private void notifyTotal(String owner) {
+            long total = totalOf(owner);
+            for (var l : listeners) l.onTotalChanged(owner, total);
         }
 
-        public void transfer(String fromId, String toId, BigDecimal amount, String desc) {
+        // amount is in paise; only the session's own accounts can be paid from
+        public void transfer(String token, String fromId, String toId, long amount, String desc) {
+            transferAs(requireUser(token), fromId, toId, amount, desc);
+        }
+
+        // a null owner skips the ownership check, for the service's own sample transfers
+        private void transferAs(String owner, String fromId, String toId, long amount, String desc) {
             var from = accounts.get(fromId);
             var to = accounts.get(toId);
             if (from == null) throw new IllegalArgumentException("From account not found");
             if (to == null) throw new IllegalArgumentException("To account not found");
-            if (amount == null || amount.compareTo(BigDecimal.ZERO) <= 0) throw new IllegalArgumentException("Amount must be positive");
-            if (from.getBalance().compareTo(amount) < 0) throw new IllegalArgumentException("Insufficient funds");
+            if (amount <= 0) throw new IllegalArgumentException("Amount must be positive");
+
+            // lock the lower stripe first, so two transfers in opposite directions cannot deadlock
+            int a = stripeOf(fromId), b = stripeOf(toId);
+            var first = stripes[Math.min(a, b)];
+            var second = stripes[Math.max(a, b)];
+            Transaction t;
+            long ticket = 0;
+            String fromOwner, toOwner;
+            first.lock();
+            if (second != first) second.lock();
+            try {
+                // checked under the lock, which changeOwner also takes
+                if (owner != null && !owner.equals(from.getOwnerUsername())) throw new IllegalArgumentException("From account is not yours");
+                if (from.getBalance() < amount) throw new IllegalArgumentException("Insufficient funds");
+
+                // work out both balances before writing either, so an overflow leaves nothing half-applied
+                long fromBalance = from.getBalance() - amount;
+                long toBalance = from == to ? fromBalance + amount : Math.addExact(to.getBalance(), amount);
+                long seq = ids.next();
+                t = new Transaction(seq, IdGenerator.format(seq), LocalDateTime.now(), fromId, toId, amount, desc);
+                // queued before the balances move; any transfer that builds on this one needs these locks,
+                // so it is queued behind it and a crash can only lose a tail of the journal
+                if (journal != null) ticket = journal.append(t);
+
+                from.setBalance(fromBalance);
+                to.setBalance(toBalance);
+                from.appliedSeq = to.appliedSeq = seq;
+                fromOwner = from.getOwnerUsername();
+                toOwner = to.getOwnerUsername();
+                // moving money between one owner's accounts leaves their total alone
+                if (!fromOwner.equals(toOwner)) {
+                    adjustTotal(fromOwner, -amount);
+                    adjustTotal(toOwner, amount);
+                }
+                indexTransaction(t, from, to);
+            } finally {
+                if (second != first) second.unlock();
+                first.unlock();
+            }
+            indexForSearch(t, fromOwner, toOwner);
+            // return only once the record is on disk; the force() is shared with whatever queued meanwhile.
+            // If the write fails the balances above are already moved, and requireUser stops serving them
+            if (journal != null) journal.awaitDurable(ticket);
+            for (var l : listeners) l.onTransfer(t, from, to);
+            if (!fromOwner.equals(toOwner)) {
+                notifyTotal(fromOwner);
+                notifyTotal(toOwner);
+            }
+        }
+
+        // Validates every request first, then applies them under one pass over the stripe locks, with
+        // one reserved block of ids and one journal append. Atomic batches are all or nothing and
+        // throw on the first refusal; otherwise each item is applied or refused on its own. Every
+        // item must pay from one of the session's own accounts.
+        public BatchResult transferBatch(String token, List<TransferRequest> requests, boolean atomic) {
+            var payer = requireUser(token);
+            int n = requests.size();
+            var errors = new String[n];
+            var froms = new Account[n];
+            var tos = new Account[n];
+            var needed = new BitSet(LOCK_STRIPES);
+            for (int i = 0; i < n; i++) {
+                var r = requests.get(i);
+                froms[i] = accounts.get(r.getFromAccountId());
+                tos[i] = accounts.get(r.getToAccountId());
+                if (froms[i] == null) errors[i] = "From account not found";
+                else if (tos[i] == null) errors[i] = "To account not found";
+                else if (r.getAmount() <= 0) errors[i] = "Amount must be positive";
+                // the journal would throw for it later, after the rest of a non-atomic batch was under way
+                else if (!Journal.fits(r.getDescription())) errors[i] = "Description is too long";
+                if (errors[i] == null) {
+                    needed.set(stripeOf(froms[i].getId()));
+                    needed.set(stripeOf(tos[i].getId()));
+                } else if (atomic) {
+                    throw new IllegalArgumentException("Item " + i + ": " + errors[i]);
+                }
+            }
+
+            var txs = new Transaction[n];
+            var committed = new ArrayList<Transaction>(n);
+            // account -> { working balance, balance before the batch }
+            var balances = new IdentityHashMap<Account, long[]>();
+            var ownerDeltas = new HashMap<String, Long>();
+            long ticket = 0;
+            // ascending, like transfer, so batches and single transfers cannot deadlock
+            for (int s = needed.nextSetBit(0); s >= 0; s = needed.nextSetBit(s + 1)) stripes[s].lock();
+            try {
+                // run the whole batch against working balances before anything is written
+                for (int i = 0; i < n; i++) {
+                    if (errors[i] != null) continue;
+                    var from = balances.computeIfAbsent(froms[i], a -> new long[] { a.getBalance(), a.getBalance() });
+                    var to = balances.computeIfAbsent(tos[i], a -> new long[] { a.getBalance(), a.getBalance() });
+                    long amount = requests.get(i).getAmount();
+                    if (!payer.equals(froms[i].getOwnerUsername())) errors[i] = "From account is not yours";
+                    else if (from[0] < amount) errors[i] = "Insufficient funds";
+                    else if (from != to && to[0] > Long.MAX_VALUE - amount) errors[i] = "Balance would overflow";
+                    if (errors[i] == null) {
+                        from[0] -= amount;
+                        to[0] += amount;
+                    } else if (atomic) {
+                        throw new IllegalArgumentException("Item " + i + ": " + errors[i]);
+                    }
+                }
+
+                int ok = 0;
+                for (var e : errors) if (e == null) ok++;
+                long seq = ids.reserve(ok);
+                var now = LocalDateTime.now();
+                for (int i = 0; i < n; i++) {
+                    if (errors[i] != null) continue;
+                    var r = requests.get(i);
+                    txs[i] = new Transaction(seq, IdGenerator.format(seq++), now, r.getFromAccountId(), r.getToAccountId(), r.getAmount(), r.getDescription());
+                    committed.add(txs[i]);
+                }
+                if (journal != null && !committed.isEmpty()) ticket = journal.appendAll(committed);
+
+                long lastSeq = seq - 1;
+                balances.forEach((a, b) -> {
+                    a.setBalance(b[0]);
+                    a.appliedSeq = lastSeq;
+                    ownerDeltas.merge(a.getOwnerUsername(), b[0] - b[1], Long::sum);
+                });
+                ownerDeltas.forEach(this::adjustTotal);
+                indexBatch(committed);
+            } finally {
+                for (int s = needed.previousSetBit(LOCK_STRIPES - 1); s >= 0; s = needed.previousSetBit(s - 1)) stripes[s].unlock();
+            }
+            for (var t : committed) {
+                indexForSearch(t, accounts.get(t.getFromAccountId()).getOwnerUsername(), accounts.get(t.getToAccountId()).getOwnerUsername());
+            }
+            if (journal != null && ticket > 0) journal.awaitDurable(ticket);
+
+            if (!committed.isEmpty()) {
+                var touched = new HashMap<String, Account>(balances.size() * 2);
+                for (var a : balances.keySet()) touched.put(a.getId(), a);
+                for (var l : listeners) l.onBatch(committed, touched);
+                ownerDeltas.forEach((owner, delta) -> {
+                    if (delta != 0) notifyTotal(owner);
+                });
+            }
+            return new BatchResult(Arrays.asList(txs), Arrays.asList(errors), committed);
+        }
+
+        public void addListener(BankListener l) { listeners.add(l); }
+        public void removeListener(BankListener l) { listeners.remove(l); }
 
-            from.setBalance(from.getBalance().subtract(amount));
-            to.setBalance(to.getBalance().add(amount));
+        private static int stripeOf(String accountId) {
+            return Math.floorMod(accountId.hashCode(), LOCK_STRIPES);
+        }
+
+        public boolean involvesUser(Transaction t, String username) {
+            var from = accounts.get(t.getFromAccountId());
+            var to = accounts.get(t.getToAccountId());
+            return (from != null && username.equals(from.getOwnerUsername())) || (to != null && username.equals(to.getOwnerUsername()));
+        }
 
-            var t = new Transaction(UUID.randomUUID().toString(), LocalDateTime.now(), fromId, toId, amount, desc);
-            transactions.add(0, t); // newest first
+        public HistoryPage historyFor(String token, String accountId, long before, int limit) {
+            var a = accounts.get(accountId);
+            if (a == null || !requireUser(token).equals(a.getOwnerUsername())) throw new IllegalArgumentException("Account not found");
+            return page(transactionsByAccount.getOrDefault(accountId, List.of()), before, limit);
         }
 
-        public ObservableList<Transaction> transactionsForUser(String username) {
-            var userAccountIds = listAccounts(username).stream().map(Account::getId).collect(Collectors.toSet());
-            return transactions.filtered(t -> userAccountIds.contains(t.getFromAccountId()) || userAccountIds.contains(t.getToAccountId()));
+        public HistoryPage historyForUser(String token, long before, int limit) {
+            return page(transactionsByOwner.getOrDefault(requireUser(token), List.of()), before, limit);
         }
 
-        private void seed() {
-            users.put("alice", new User("alice", "1234", "Alice Johnson"));
-            users.put("bob", new User("bob", "1234", "Bob Singh"));
+        public int historyCount(String token) {
+            var list = transactionsByOwner.getOrDefault(requireUser(token), List.of());
+            synchronized (list) {
+                return list.size();
+            }
+        }
+
+        // up to count entries, oldest first, counted from the user's oldest transfer; unlike cursors
+        // from the newest end, a position keeps pointing at the same entry as new transfers arrive
+        public List<Transaction> historyRange(String token, int from, int count) {
+            var list = transactionsByOwner.getOrDefault(requireUser(token), List.of());
+            synchronized (list) {
+                int start = Math.min(Math.max(from, 0), list.size());
+                return new ArrayList<>(list.subList(start, Math.min(list.size(), start + count)));
+            }
+        }
+
+        // newest `limit` entries with seq < before; the newest page needs no search at all
+        private static HistoryPage page(List<Transaction> list, long before, int limit) {
+            synchronized (list) {
+                return pageOf(list, before, limit);
+            }
+        }
+
+        private static HistoryPage pageOf(List<Transaction> list, long before, int limit) {
+            int end = list.isEmpty() || list.get(list.size() - 1).getSeq() < before ? list.size() : firstAtOrAfter(list, before);
+            int start = Math.max(0, end - limit);
+            var items = new ArrayList<Transaction>(end - start);
+            for (int i = end - 1; i >= start; i--) items.add(list.get(i));
+            return new HistoryPage(items, start > 0 ? list.get(start).getSeq() : 0);
+        }
+
+        private static int firstAtOrAfter(List<Transaction> list, long seq) {
+            int lo = 0, hi = list.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (list.get(mid).getSeq() < seq) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        private void indexTransaction(Transaction t, Account from, Account to) {
+            insertInOrder(transactionsByAccount.computeIfAbsent(from.getId(), k -> new ArrayList<>()), t);
+            if (to != from) {
+                insertInOrder(transactionsByAccount.computeIfAbsent(to.getId(), k -> new ArrayList<>()), t);
+            }
+            insertInOrder(transactionsByOwner.computeIfAbsent(from.getOwnerUsername(), k -> new ArrayList<>()), t);
+            if (!to.getOwnerUsername().equals(from.getOwnerUsername())) {
+                insertInOrder(transactionsByOwner.computeIfAbsent(to.getOwnerUsername(), k -> new ArrayList<>()), t);
+            }
+        }
+
+        // groups the batch by target list so each list is locked, and usually appended to, once
+        private void indexBatch(List<Transaction> batch) {
+            var groups = new IdentityHashMap<List<Transaction>, List<Transaction>>();
+            for (var t : batch) {
+                var from = accounts.get(t.getFromAccountId());
+                var to = accounts.get(t.getToAccountId());
+                groups.computeIfAbsent(transactionsByAccount.computeIfAbsent(from.getId(), k -> new ArrayList<>()), k -> new ArrayList<>()).add(t);
+                if (to != from) {
+                    groups.computeIfAbsent(transactionsByAccount.computeIfAbsent(to.getId(), k -> new ArrayList<>()), k -> new ArrayList<>()).add(t);
+                }
+                groups.computeIfAbsent(transactionsByOwner.computeIfAbsent(from.getOwnerUsername(), k -> new ArrayList<>()), k -> new ArrayList<>()).add(t);
+                if (!to.getOwnerUsername().equals(from.getOwnerUsername())) {
+                    groups.computeIfAbsent(transactionsByOwner.computeIfAbsent(to.getOwnerUsername(), k -> new ArrayList<>()), k -> new ArrayList<>()).add(t);
+                }
+            }
+            groups.forEach((list, sorted) -> {
+                synchronized (list) {
+                    if (list.isEmpty() || list.get(list.size() - 1).getSeq() < sorted.get(0).getSeq()) list.addAll(sorted);
+                    else for (var t : sorted) insertInOrder(list, t);
+                }
+            });
+        }
+
+        // almost always an append; an owner's transfers on other stripes may take a later seq but get here first
+        private static void insertInOrder(List<Transaction> list, Transaction t) {
+            synchronized (list) {
+                int i = list.size();
+                while (i > 0 && list.get(i - 1).getSeq() > t.getSeq()) i--;
+                list.add(i, t);
+            }
+        }
+
+        // rebuilds an owner's history and search index from their accounts' lists after an account changes hands
+        private void reindexOwnerHistory(String owner) {
+            if (owner == null) return;
+            var merged = new TreeMap<Long, Transaction>();
+            for (var a : ownedBy(owner)) {
+                var list = transactionsByAccount.getOrDefault(a.getId(), List.of());
+                synchronized (list) {
+                    for (var t : list) merged.put(t.getSeq(), t);
+                }
+            }
+            if (merged.isEmpty()) {
+                transactionsByOwner.remove(owner);
+                searchByOwner.remove(owner);
+                return;
+            }
+            transactionsByOwner.put(owner, new ArrayList<>(merged.values()));
+            var index = new SearchIndex();
+            for (var t : merged.values()) index.add(t);
+            searchByOwner.put(owner, index);
+        }
+
+        // outside the stripe locks; the index copes with transfers arriving slightly out of seq order
+        private void indexForSearch(Transaction t, String fromOwner, String toOwner) {
+            searchByOwner.computeIfAbsent(fromOwner, k -> new SearchIndex()).add(t);
+            if (!toOwner.equals(fromOwner)) searchByOwner.computeIfAbsent(toOwner, k -> new SearchIndex()).add(t);
+        }
+
+        // newest first; matches a substring of the description or either account id, ignoring case
+        public List<Transaction> searchHistory(String token, String query, int limit) {
+            var index = searchByOwner.get(requireUser(token));
+            return index == null ? List.of() : index.search(query, limit);
+        }
+
+        // each side only if the snapshot's copy of that account did not already include it; history
+        // is indexed either way, since the snapshot holds balances only
+        private void applyReplayed(Transaction t) {
+            var from = accounts.get(t.getFromAccountId());
+            var to = accounts.get(t.getToAccountId());
+            if (from == null || to == null) throw new IllegalStateException("Journal refers to an unknown account: " + t.getId());
+            boolean debit = t.getSeq() > from.appliedSeq, credit = t.getSeq() > to.appliedSeq;
+            if (debit) {
+                from.setBalance(from.getBalance() - t.getAmount());
+                adjustTotal(from.getOwnerUsername(), -t.getAmount());
+                from.appliedSeq = t.getSeq();
+            }
+            if (credit) {
+                to.setBalance(to.getBalance() + t.getAmount());
+                adjustTotal(to.getOwnerUsername(), t.getAmount());
+                to.appliedSeq = t.getSeq();
+            }
+            indexTransaction(t, from, to);
+            indexForSearch(t, from.getOwnerUsername(), to.getOwnerUsername());
+            ids.advancePast(t.getSeq());
+        }
+
+        private void seedAccounts() {
+            users.put("alice", new User("alice", "Alice Johnson"));
+            users.put("bob", new User("bob", "Bob Singh"));
+            credentials.set("alice", "1234".toCharArray());
+            credentials.set("bob", "1234".toCharArray());
 
             // Alice accounts
-            addAccount(new Account("AC-11001", "alice", "Alice • Savings", "SAVINGS", new BigDecimal("25000.00")));
-            addAccount(new Account("AC-11002", "alice", "Alice • Checking", "CHECKING", new BigDecimal("7300.50")));
+            addAccount(new Account("AC-11001", "alice", "Alice • Savings", "SAVINGS", Money.parse("25000.00")));
+            addAccount(new Account("AC-11002", "alice", "Alice • Checking", "CHECKING", Money.parse("7300.50")));
 
             // Bob accounts
-            addAccount(new Account("AC-22001", "bob", "Bob • Salary", "CHECKING", new BigDecimal("15890.75")));
-            addAccount(new Account("AC-22002", "bob", "Bob • Travel", "SAVINGS", new BigDecimal("9800.00")));
+            addAccount(new Account("AC-22001", "bob", "Bob • Salary", "CHECKING", Money.parse("15890.75")));
+            addAccount(new Account("AC-22002", "bob", "Bob • Travel", "SAVINGS", Money.parse("9800.00")));
+        }
 
-            // Sample transactions
-            transfer("AC-11001", "AC-11002", new BigDecimal("500.00"), "Initial top-up");
-            transfer("AC-11002", "AC-22001", new BigDecimal("1200.00"), "Rent share");
+        private void seedTransfers() {
+            transferAs(null, "AC-11001", "AC-11002", Money.parse("500.00"), "Initial top-up");
+            transferAs(null, "AC-11002", "AC-22001", Money.parse("1200.00"), "Rent share");
         }
 
-        private void addAccount(Account a) {
+        // package-private so checks can open accounts beyond the samples
+        final void addAccount(Account a) {
+            var lock = stripes[stripeOf(a.getId())];
+            lock.lock();
+            try {
+                accountsByStripe.get(stripeOf(a.getId())).add(a);
+            } finally {
+                lock.unlock();
+            }
             accounts.put(a.getId(), a);
+            indexOwner(a.getOwnerUsername(), a);
+            adjustTotal(a.getOwnerUsername(), a.getBalance());
+        }
+
+        public synchronized void changeOwner(String accountId, String newOwner) {
+            var a = accounts.get(accountId);
+            if (a == null) throw new IllegalArgumentException("Account not found");
+            var oldOwner = a.getOwnerUsername();
+            // the balance moves between the owners' totals, so hold it still meanwhile
+            var lock = stripes[stripeOf(accountId)];
+            lock.lock();
+            try {
+                a.setOwnerUsername(newOwner);
+                adjustTotal(oldOwner, -a.getBalance());
+                adjustTotal(newOwner, a.getBalance());
+            } finally {
+                lock.unlock();
+            }
+            unindexOwner(oldOwner, a);
+            indexOwner(newOwner, a);
+            reindexOwnerHistory(oldOwner);
+            reindexOwnerHistory(newOwner);
+            if (oldOwner != null) notifyTotal(oldOwner);
+            if (newOwner != null) notifyTotal(newOwner);
+        }
+
+        private void indexOwner(String owner, Account a) {
+            if (owner != null) accountsByOwner.computeIfAbsent(owner, k -> new CopyOnWriteArrayList<>()).add(a);
+        }
+
+        private void unindexOwner(String owner, Account a) {
+            if (owner == null) return;
+            accountsByOwner.computeIfPresent(owner, (k, owned) -> {
+                owned.remove(a);
+                return owned.isEmpty() ? null : owned;
+            });
+        }
+    }
+
+    // ======== Credentials & sessions ========
+    // Salted PBKDF2-HMAC-SHA256 hashes. The iteration count is the cost knob: a hash made with an
+    // older count still verifies, and is redone at the current count on its next successful login.
+    public static class CredentialStore {
+        private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+        private static final int SALT_BYTES = 16;
+        private static final int HASH_BITS = 256;
+
+        private static final class Credential {
+            final byte[] salt;
+            final int iterations;
+            final byte[] hash;
+
+            Credential(byte[] salt, int iterations, byte[] hash) {
+                this.salt = salt; this.iterations = iterations; this.hash = hash;
+            }
+        }
+
+        private final Map<String, Credential> credentials = new ConcurrentHashMap<>();
+        private final SecureRandom random = new SecureRandom();
+        private final int iterations;
+        // checked against for unknown usernames, so a miss takes as long as a wrong password
+        private final Credential unknownUser;
+
+        public CredentialStore(int iterations) {
+            this.iterations = iterations;
+            unknownUser = hash("unknown-user".toCharArray());
+        }
+
+        public void set(String username, char[] password) {
+            credentials.put(username, hash(password));
+            Arrays.fill(password, '\0');
+        }
+
+        public boolean verify(String username, char[] password) {
+            try {
+                var c = credentials.get(username);
+                var against = c != null ? c : unknownUser;
+                boolean ok = MessageDigest.isEqual(pbkdf2(password, against.salt, against.iterations), against.hash) && c != null;
+                if (ok && c.iterations != iterations) credentials.replace(username, c, hash(password));
+                return ok;
+            } finally {
+                Arrays.fill(password, '\0');
+            }
+        }
+
+        private Credential hash(char[] password) {
+            var salt = new byte[SALT_BYTES];
+            random.nextBytes(salt);
+            return new Credential(salt, iterations, pbkdf2(password, salt, iterations));
+        }
+
+        private static byte[] pbkdf2(char[] password, byte[] salt, int iterations) {
+            var spec = new PBEKeySpec(password, salt, iterations, HASH_BITS);
+            try {
+                return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(ALGORITHM + " is not available", e);
+            } finally {
+                spec.clearPassword();
+            }
+        }
+    }
+
+    // Token -> session, with a sliding idle TTL. Lookups evict what they find expired; opening a
+    // session sweeps the rest at most once per TTL, so the map cannot grow without bound.
+    public static class SessionCache {
+        private static final class Entry {
+            final Session session;
+            volatile long expiresAt;
+
+            Entry(Session session, long expiresAt) {
+                this.session = session; this.expiresAt = expiresAt;
+            }
+        }
+
+        private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+        private final SecureRandom random = new SecureRandom();
+        private final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        private final long ttlNanos;
+        private final AtomicLong nextSweep;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        public SessionCache(long ttlNanos) {
+            this.ttlNanos = ttlNanos;
+            nextSweep = new AtomicLong(System.nanoTime() + ttlNanos);
+        }
+
+        public Session open(User user) {
+            long now = System.nanoTime();
+            long sweepAt = nextSweep.get();
+            if (now - sweepAt >= 0 && nextSweep.compareAndSet(sweepAt, now + ttlNanos)) {
+                entries.values().removeIf(e -> now - e.expiresAt >= 0);
+            }
+            var bytes = new byte[32];
+            random.nextBytes(bytes);
+            var session = new Session(encoder.encodeToString(bytes), user);
+            entries.put(session.getToken(), new Entry(session, now + ttlNanos));
+            return session;
+        }
+
+        public Session lookup(String token) {
+            var e = token == null ? null : entries.get(token);
+            long now = System.nanoTime();
+            if (e == null || now - e.expiresAt >= 0) {
+                if (e != null) entries.remove(token, e);
+                misses.increment();
+                return null;
+            }
+            e.expiresAt = now + ttlNanos;
+            hits.increment();
+            return e.session;
+        }
+
+        public void close(String token) {
+            if (token != null) entries.remove(token);
+        }
+
+        public void closeAllFor(String username, String keepToken) {
+            entries.entrySet().removeIf(e -> !e.getKey().equals(keepToken) && e.getValue().session.getUser().getUsername().equals(username));
+        }
+
+        public int size() { return entries.size(); }
+        public long getHits() { return hits.sum(); }
+        public long getMisses() { return misses.sum(); }
+    }
+
+    // ======== Search ========
+    // Trigram inverted index over one user's transactions: description and both account ids. A query
+    // walks the shortest posting list of its trigrams newest first, skips anything missing from the
+    // other lists, and confirms the rest with contains(). Queries under three characters scan everything.
+    public static class SearchIndex {
+        // nothing here is private to the nest, so the service runs without JavaFX (see Account)
+        static final Comparator<Transaction> BY_SEQ = Comparator.comparingLong(Transaction::getSeq);
+
+        // posting lists are appended to and only sorted when a query needs them
+        static final class Posting {
+            final ArrayList<Transaction> items = new ArrayList<>();
+            boolean sorted = true;
+
+            void add(Transaction t) {
+                if (!items.isEmpty() && items.get(items.size() - 1).getSeq() > t.getSeq()) sorted = false;
+                items.add(t);
+            }
+
+            List<Transaction> items() {
+                if (!sorted) {
+                    items.sort(BY_SEQ);
+                    sorted = true;
+                }
+                return items;
+            }
+
+            boolean contains(long seq) {
+                var list = items();
+                int lo = 0, hi = list.size() - 1;
+                while (lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    long s = list.get(mid).getSeq();
+                    if (s < seq) lo = mid + 1; else if (s > seq) hi = mid - 1; else return true;
+                }
+                return false;
+            }
+        }
+
+        private final Posting all = new Posting();
+        private final Map<String, Posting> postings = new HashMap<>();
+
+        public synchronized void add(Transaction t) {
+            all.add(t);
+            var text = searchText(t);
+            var seen = new HashSet<String>();
+            for (int i = 0; i + 3 <= text.length(); i++) {
+                var gram = text.substring(i, i + 3);
+                if (seen.add(gram)) postings.computeIfAbsent(gram, k -> new Posting()).add(t);
+            }
+        }
+
+        public synchronized List<Transaction> search(String query, int limit) {
+            var q = query.toLowerCase(Locale.ROOT);
+            var lists = new ArrayList<Posting>();
+            if (q.length() < 3) {
+                lists.add(all);
+            } else {
+                for (int i = 0; i + 3 <= q.length(); i++) {
+                    var p = postings.get(q.substring(i, i + 3));
+                    if (p == null) return List.of();
+                    if (!lists.contains(p)) lists.add(p);
+                }
+                lists.sort(Comparator.comparingInt(p -> p.items.size()));
+            }
+            var shortest = lists.get(0).items();
+            var hits = new ArrayList<Transaction>();
+            candidates:
+            for (int i = shortest.size() - 1; i >= 0 && hits.size() < limit; i--) {
+                var t = shortest.get(i);
+                for (int j = 1; j < lists.size(); j++) {
+                    if (!lists.get(j).contains(t.getSeq())) continue candidates;
+                }
+                if (searchText(t).contains(q)) hits.add(t);
+            }
+            return hits;
+        }
+
+        // fields joined by a newline, which a search box cannot produce, so matches never span two fields
+        private static String searchText(Transaction t) {
+            return (t.getDescription() + '\n' + t.getFromAccountId() + '\n' + t.getToAccountId()).toLowerCase(Locale.ROOT);
+        }
+    }
+
+    // ======== Ids ========
+    // Time-ordered, monotonic 63-bit ids: milliseconds since EPOCH in the high 41 bits, a counter in
+    // the low 22. Each id is one CAS on a single AtomicLong, with no SecureRandom and no lock. If a
+    // millisecond's counter runs out, or the clock steps back, ids carry on from the last one.
+    public static class IdGenerator {
+        private static final long EPOCH = 1_700_000_000_000L; // 2023-11-14, leaves room until about 2093
+        private static final int COUNTER_BITS = 22;
+        private static final char[] DIGITS = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+        private final AtomicLong last = new AtomicLong();
+
+        public long next() {
+            return reserve(1);
+        }
+
+        // first of n consecutive ids
+        public long reserve(int n) {
+            long now = (System.currentTimeMillis() - EPOCH) << COUNTER_BITS;
+            return last.updateAndGet(prev -> Math.max(prev + n, now + n - 1)) - n + 1;
+        }
+
+        public long last() { return last.get(); }
+
+        // after replay or a snapshot, so new ids sort after everything already handed out
+        public void advancePast(long id) {
+            last.accumulateAndGet(id, Math::max);
+        }
+
+        // 13 Crockford base32 digits; fixed width, so the strings sort the way the ids do
+        public static String format(long id) {
+            var out = new char[13];
+            for (int i = out.length - 1; i >= 0; i--) {
+                out[i] = DIGITS[(int) (id & 31)];
+                id >>>= 5;
+            }
+            return new String(out);
+        }
+
+        public static long parse(String s) {
+            if (s.length() != 13) throw new IllegalArgumentException("Not an id: " + s);
+            long id = 0;
+            for (int i = 0; i < s.length(); i++) {
+                int d = Arrays.binarySearch(DIGITS, Character.toUpperCase(s.charAt(i)));
+                if (d < 0) throw new IllegalArgumentException("Not an id: " + s);
+                id = (id << 5) | d;
+            }
+            return id;
+        }
+    }
+
+    // ======== Journal ========
+    // Append-only log of committed transfers, one [int length][int crc32][payload] record each.
+    // Appends are queued and a single writer thread writes whatever gathered during the window
+    // with one force(), so concurrent transfers share an fsync.
+    public static class Journal implements Closeable {
+        private static final int MAX_RECORD = 256 * 1024;
+
+        private final Path path;
+        private final FileChannel channel;
+        private final long windowNanos;
+        private final Thread writer;
+        // guarded by this
+        private final List<ByteBuffer> pending = new ArrayList<>();
+        private long appended;
+        private long durable;
+        // file offset just past the last queued record
+        private long end;
+        private boolean closed;
+        // set once by the writer; volatile so the service can check it on every call without the monitor
+        private volatile IOException failure;
+
+        public Journal(Path path, long windowMicros) throws IOException {
+            this.path = path;
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            end = channel.size();
+            channel.position(end);
+            windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+            writer = new Thread(this::writeLoop, "bank-journal");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        public Path path() { return path; }
+
+        // feeds every intact record from offset on to apply, then cuts off a torn or corrupt tail left by a crash
+        public int replay(long from, Consumer<Transaction> apply) throws IOException {
+            var count = new int[1];
+            long pos = scan(from, Long.MAX_VALUE, t -> { apply.accept(t); count[0]++; });
+            if (pos < channel.size()) {
+                channel.truncate(pos);
+                channel.force(true);
+            }
+            channel.position(pos);
+            synchronized (this) {
+                end = pos;
+            }
+            return count[0];
+        }
+
+        // reads records in [from, to) and returns the offset it stopped at; safe alongside appends
+        public long scan(long from, long to, Consumer<Transaction> apply) throws IOException {
+            var header = ByteBuffer.allocate(8);
+            long pos = from;
+            while (pos < to) {
+                header.clear();
+                if (readFully(header, pos) < 8) break;
+                int len = header.getInt(0), crc = header.getInt(4);
+                if (len <= 0 || len > MAX_RECORD) break;
+                var payload = ByteBuffer.allocate(len);
+                if (readFully(payload, pos + 8) < len) break;
+                var check = new CRC32();
+                check.update(payload.array(), 0, len);
+                if ((int) check.getValue() != crc) break;
+                apply.accept(decode(payload.array()));
+                pos += 8 + len;
+            }
+            return pos;
+        }
+
+        public long size() throws IOException { return channel.size(); }
+
+        // ticket and offset of the last queued record; only stable while nothing can append
+        synchronized long lastTicket() { return appended; }
+        synchronized long endOffset() { return end; }
+
+        private int readFully(ByteBuffer buf, long pos) throws IOException {
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, pos + buf.position()) < 0) break;
+            }
+            return buf.position();
+        }
+
+        // returns a ticket to hand to awaitDurable
+        public long append(Transaction t) {
+            var record = encode(t);
+            synchronized (this) {
+                if (failure != null) throw new UncheckedIOException("Journal is unavailable", failure);
+                if (closed) throw new IllegalStateException("Journal is closed");
+                pending.add(record);
+                end += record.remaining();
+                if (pending.size() == 1) notifyAll();
+                return ++appended;
+            }
+        }
+
+        // one queue entry per transaction, taken under a single monitor; returns the last one's ticket
+        public long appendAll(List<Transaction> ts) {
+            var records = new ArrayList<ByteBuffer>(ts.size());
+            for (var t : ts) records.add(encode(t));
+            synchronized (this) {
+                if (failure != null) throw new UncheckedIOException("Journal is unavailable", failure);
+                if (closed) throw new IllegalStateException("Journal is closed");
+                if (pending.isEmpty()) notifyAll();
+                for (var r : records) end += r.remaining();
+                pending.addAll(records);
+                appended += records.size();
+                return appended;
+            }
+        }
+
+        // once the writer has failed, memory may hold transfers that never reached the disk
+        public void checkAvailable() {
+            var f = failure;
+            if (f != null) throw new UncheckedIOException("Journal is unavailable", f);
+        }
+
+        public synchronized void awaitDurable(long ticket) {
+            boolean interrupted = false;
+            while (durable < ticket && failure == null) {
+                try { wait(); } catch (InterruptedException e) { interrupted = true; }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            if (durable < ticket) throw new UncheckedIOException("Transfer was not journaled", failure);
+        }
+
+        private void writeLoop() {
+            var batch = new ArrayList<ByteBuffer>();
+            try {
+                while (true) {
+                    synchronized (this) {
+                        while (pending.isEmpty() && !closed) wait();
+                        if (pending.isEmpty()) return;
+                    }
+                    // give other transfers the window to join this force()
+                    if (windowNanos > 0) LockSupport.parkNanos(windowNanos);
+                    long upTo;
+                    synchronized (this) {
+                        batch.addAll(pending);
+                        pending.clear();
+                        upTo = appended;
+                    }
+                    var bufs = batch.toArray(new ByteBuffer[0]);
+                    long remaining = 0;
+                    for (var b : bufs) remaining += b.remaining();
+                    while (remaining > 0) remaining -= channel.write(bufs);
+                    channel.force(false);
+                    batch.clear();
+                    synchronized (this) {
+                        durable = upTo;
+                        notifyAll();
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (InterruptedException e) {
+                fail(new InterruptedIOException("Journal writer interrupted"));
+            }
+        }
+
+        private synchronized void fail(IOException e) {
+            failure = e;
+            notifyAll();
+        }
+
+        // waits for queued records to reach the disk
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            channel.close();
+        }
+
+        // whether writeUTF can hold s: at most 65535 bytes of modified UTF-8, where NUL takes two
+        static boolean fits(String s) {
+            if (s.length() * 3L <= 65535) return true;
+            long bytes = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                bytes += c >= 1 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+            }
+            return bytes <= 65535;
+        }
+
+        static ByteBuffer encode(Transaction t) {
+            var bytes = new ByteArrayOutputStream(128);
+            try (var out = new DataOutputStream(bytes)) {
+                out.writeLong(0); // header, filled in below
+                out.writeLong(t.getSeq());
+                out.writeUTF(t.getId());
+                out.writeLong(t.getWhen().toEpochSecond(ZoneOffset.UTC));
+                out.writeInt(t.getWhen().getNano());
+                out.writeUTF(t.getFromAccountId());
+                out.writeUTF(t.getToAccountId());
+                out.writeLong(t.getAmount());
+                out.writeUTF(t.getDescription());
+            } catch (UTFDataFormatException e) {
+                throw new IllegalArgumentException("Description is too long");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            var buf = ByteBuffer.wrap(bytes.toByteArray());
+            var crc = new CRC32();
+            crc.update(buf.array(), 8, buf.limit() - 8);
+            buf.putInt(0, buf.limit() - 8).putInt(4, (int) crc.getValue());
+            return buf;
+        }
+
+        static Transaction decode(byte[] payload) throws IOException {
+            var in = new DataInputStream(new ByteArrayInputStream(payload));
+            long seq = in.readLong();
+            var id = in.readUTF();
+            var when = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+            return new Transaction(seq, id, when, in.readUTF(), in.readUTF(), in.readLong(), in.readUTF());
+        }
+    }
+
+    // ======== Snapshots ========
+    // Every account balance, with the seq of the last transfer it includes, as of a journal offset, so
+    // startup only replays the records after it. Layout: magic, journal offset, last seq, count, then
+    // (id, balance, applied seq) triples and a trailing crc32.
+    public static class Snapshot {
+        private static final int MAGIC = 0x42534E32; // "BSN2"; older snapshots fail it and the whole journal is replayed
+
+        private final long journalOffset;
+        private final long lastSeq;
+        private final int size;
+        // parallel arrays, filled up to size
+        private final String[] accountIds;
+        private final long[] balances;
+        private final long[] appliedSeqs;
+
+        public Snapshot(long journalOffset, long lastSeq, int size, String[] accountIds, long[] balances, long[] appliedSeqs) {
+            this.journalOffset = journalOffset; this.lastSeq = lastSeq; this.size = size;
+            this.accountIds = accountIds; this.balances = balances; this.appliedSeqs = appliedSeqs;
+        }
+        public long getJournalOffset() { return journalOffset; }
+        public long getLastSeq() { return lastSeq; }
+        public int size() { return size; }
+        public String getAccountId(int i) { return accountIds[i]; }
+        public long getBalance(int i) { return balances[i]; }
+        public long getAppliedSeq(int i) { return appliedSeqs[i]; }
+
+        // written beside the target and renamed over it, so a crash leaves the previous snapshot intact;
+        // streamed through a small buffer, so a large snapshot never sits in memory a second time
+        public void write(Path target) throws IOException {
+            var tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            try (var ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                var crc = new CRC32();
+                // not closed: that would close the channel before the checksum and force()
+                var out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch), 64 * 1024), crc));
+                out.writeInt(MAGIC);
+                out.writeLong(journalOffset);
+                out.writeLong(lastSeq);
+                out.writeInt(size);
+                for (int i = 0; i < size; i++) {
+                    var id = accountIds[i].getBytes(StandardCharsets.UTF_8);
+                    out.writeShort(id.length);
+                    out.write(id);
+                    out.writeLong(balances[i]);
+                    out.writeLong(appliedSeqs[i]);
+                }
+                out.flush();
+                var trailer = ByteBuffer.allocate(4).putInt(0, (int) crc.getValue());
+                while (trailer.hasRemaining()) ch.write(trailer);
+                ch.force(true);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        // null when there is no snapshot or it fails its checksum
+        public static Snapshot load(Path source) throws IOException {
+            if (!Files.exists(source)) return null;
+            try (var ch = FileChannel.open(source, StandardOpenOption.READ)) {
+                long size = ch.size();
+                if (size < 28 || size > Integer.MAX_VALUE) return null;
+                var map = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                var crc = new CRC32();
+                crc.update(map.slice(0, (int) size - 4));
+                if ((int) crc.getValue() != map.getInt((int) size - 4) || map.getInt(0) != MAGIC) return null;
+                map.position(4);
+                long offset = map.getLong(), seq = map.getLong();
+                int count = map.getInt();
+                var accountIds = new String[count];
+                var balances = new long[count];
+                var appliedSeqs = new long[count];
+                var id = new byte[256];
+                for (int i = 0; i < count; i++) {
+                    int len = Short.toUnsignedInt(map.getShort());
+                    if (len > id.length) id = new byte[len];
+                    map.get(id, 0, len);
+                    accountIds[i] = new String(id, 0, len, StandardCharsets.UTF_8);
+                    balances[i] = map.getLong();
+                    appliedSeqs[i] = map.getLong();
+                }
+                return new Snapshot(offset, seq, count, accountIds, balances, appliedSeqs);
+            }
+        }
+    }
+
+    // ======== Async facade ========
+    // Runs BankService calls on a small dedicated pool. The returned futures complete on the FX thread,
+    // so anything chained onto them from a handler may touch the scene graph directly.
+    public static class AsyncBank implements AutoCloseable {
+        private final BankService bank;
+        private final ExecutorService executor;
+
+        public AsyncBank(BankService bank, int threads) {
+            this.bank = bank;
+            var count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, r -> {
+                var t = new Thread(r, "bank-io-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        public CompletableFuture<Session> login(String username, String password) {
+            return call(() -> bank.login(username, password));
+        }
+
+        public CompletableFuture<Void> logout(String token) {
+            return run(() -> bank.logout(token));
+        }
+
+        public CompletableFuture<Void> changePassword(String token, String newPass) {
+            return run(() -> bank.changePassword(token, newPass));
+        }
+
+        public CompletableFuture<List<Account>> listAccounts(String token) {
+            return call(() -> bank.listAccounts(token));
+        }
+
+        public CompletableFuture<List<Account>> listAllPayableAccounts(String token) {
+            return call(() -> bank.listAllPayableAccounts(token));
+        }
+
+        public CompletableFuture<Void> transfer(String token, String fromId, String toId, long amount, String desc) {
+            return run(() -> bank.transfer(token, fromId, toId, amount, desc));
+        }
+
+        public CompletableFuture<BatchResult> transferBatch(String token, List<TransferRequest> requests, boolean atomic) {
+            return call(() -> bank.transferBatch(token, requests, atomic));
+        }
+
+        public CompletableFuture<HistoryPage> historyForUser(String token, long before, int limit) {
+            return call(() -> bank.historyForUser(token, before, limit));
+        }
+
+        public CompletableFuture<Integer> historyCount(String token) {
+            return call(() -> bank.historyCount(token));
+        }
+
+        public CompletableFuture<List<Transaction>> historyRange(String token, int from, int count) {
+            return call(() -> bank.historyRange(token, from, count));
+        }
+
+        public CompletableFuture<List<Transaction>> searchHistory(String token, String query, int limit) {
+            return call(() -> bank.searchHistory(token, query, limit));
+        }
+
+        private CompletableFuture<Void> run(Runnable work) {
+            return call(() -> {
+                work.run();
+                return null;
+            });
+        }
+
+        private <T> CompletableFuture<T> call(Supplier<T> work) {
+            return CompletableFuture.supplyAsync(work, executor).whenCompleteAsync((r, ex) -> {}, Platform::runLater);
+        }
+
+        @Override
+        public void close() {
+            executor.shutdown();
+        }
+    }
+
+    // ======== FX stall monitor ========
+    // Keeps one ping queued on the FX thread at a time. A ping that waits longer than the threshold
+    // means some event handler or pulse held the thread that long, so the FX thread's stack is
+    // reported while it is stuck, and the total once it frees up.
+    public static class FxStallMonitor implements AutoCloseable {
+        private final long thresholdNanos;
+        private final ScheduledExecutorService timer;
+        private volatile Thread fxThread;
+        private volatile long pingSentAt; // 0 while no ping is queued
+        private volatile boolean reported;
+
+        public FxStallMonitor(long thresholdMillis) {
+            thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                var t = new Thread(r, "fx-stall-monitor");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        public void start() {
+            if (thresholdNanos <= 0) return;
+            Platform.runLater(() -> fxThread = Thread.currentThread());
+            long period = Math.max(TimeUnit.MILLISECONDS.toNanos(1), thresholdNanos / 4);
+            timer.scheduleAtFixedRate(this::tick, period, period, TimeUnit.NANOSECONDS);
+        }
+
+        private void tick() {
+            long now = System.nanoTime();
+            long sent = pingSentAt;
+            if (sent == 0) {
+                pingSentAt = now;
+                Platform.runLater(this::pong);
+            } else if (!reported && now - sent > thresholdNanos) {
+                reported = true;
+                var sb = new StringBuilder("FX thread stalled for over ")
+                        .append(TimeUnit.NANOSECONDS.toMillis(now - sent)).append(" ms");
+                var t = fxThread;
+                if (t != null) for (var frame : t.getStackTrace()) sb.append("\n\tat ").append(frame);
+                System.err.println(sb);
+            }
+        }
+
+        private void pong() {
+            if (reported) {
+                System.err.println("FX thread stall ended after " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pingSentAt) + " ms");
+                reported = false;
+            }
+            pingSentAt = 0;
+        }
+
+        @Override
+        public void close() {
+            timer.shutdownNow();
+        }
+    }
+
+    // ======== Lazy history list ========
+    // Newest-first list over a user's history that holds only a few pages. get() answers from the
+    // cache, or returns null (shown as an empty row) and fetches the page, plus the next one in the
+    // direction the table is scrolling. Pages are numbered from the oldest transfer, so new transfers
+    // do not shift them and only the page that was newest needs fetching again. FX thread only.
+    public static final class PagedHistoryList extends ObservableListBase<Transaction> {
+        private static final int MAX_PAGES = 8;
+        // times a page that came back short is asked for again before what came back is kept
+        private static final int MAX_RETRIES = 3;
+
+        private final AsyncBank async;
+        private final String token;
+        private final int pageSize;
+        private final Map<Integer, List<Transaction>> pages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<Transaction>> eldest) {
+                return size() > MAX_PAGES;
+            }
+        };
+        private final Set<Integer> loading = new HashSet<>();
+        private final Map<Integer, Integer> retries = new HashMap<>();
+        // why the last count or page failed, such as an expired session; null once a count succeeds
+        private final ReadOnlyStringWrapper error = new ReadOnlyStringWrapper();
+        private int size;
+        private int lastPage = -1;
+        // bumped by every refresh; counts can come back out of order, so only the newest one is applied
+        private long generation;
+        // bumped by reload; pages fetched before it may hold entries at positions that have since moved
+        private long epoch;
+        private boolean reset;
+
+        public PagedHistoryList(AsyncBank async, String token, int pageSize) {
+            this.async = async;
+            this.token = token;
+            this.pageSize = pageSize;
+            refresh();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        public ReadOnlyStringProperty errorProperty() {
+            return error.getReadOnlyProperty();
+        }
+
+        @Override
+        public Transaction get(int index) {
+            Objects.checkIndex(index, size);
+            int pos = size - 1 - index;
+            int page = pos / pageSize;
+            var items = pages.get(page);
+            if (items == null) fetch(page);
+            if (page != lastPage) {
+                if (lastPage >= 0) fetch(page + Integer.signum(page - lastPage));
+                lastPage = page;
+            }
+            int offset = pos - page * pageSize;
+            return items != null && offset < items.size() ? items.get(offset) : null;
+        }
+
+        // picks up transfers made since the last look
+        public void refresh() {
+            long asked = ++generation;
+            async.historyCount(token).whenComplete((n, ex) -> {
+                if (asked != generation) return;
+                if (ex != null) {
+                    error.set(messageOf(ex));
+                    return;
+                }
+                error.set(null);
+                if (n == size && !reset) return;
+                int old = size;
+                boolean grew = n > old && !reset;
+                if (grew) {
+                    // only the page that was newest can have gained entries
+                    int top = old == 0 ? 0 : (old - 1) / pageSize;
+                    pages.keySet().removeIf(p -> p >= top);
+                } else {
+                    pages.clear();
+                }
+                reset = false;
+                size = n;
+                beginChange();
+                if (grew) nextAdd(0, n - old);
+                else nextReplace(0, n, Collections.nCopies(old, null));
+                endChange();
+            });
+        }
+
+        // older entries were merged in below the cached ones, so every cached position is off
+        public void reload() {
+            reset = true;
+            epoch++;
+            pages.clear();
+            loading.clear();
+            retries.clear();
+            refresh();
+        }
+
+        private void fetch(int page) {
+            if (page < 0 || page > (size - 1) / pageSize || pages.containsKey(page) || !loading.add(page)) return;
+            long fetchedIn = epoch;
+            async.historyRange(token, page * pageSize, pageSize).whenComplete((items, ex) -> {
+                if (fetchedIn != epoch) return;
+                loading.remove(page);
+                if (ex != null) {
+                    error.set(messageOf(ex));
+                    return;
+                }
+                int lo = page * pageSize;
+                int hi = Math.min(size, lo + pageSize);
+                if (lo + items.size() < hi) {
+                    // fetched before a refresh grew this page; ask again rather than cache a short page
+                    if (retries.merge(page, 1, Integer::sum) <= MAX_RETRIES) {
+                        fetch(page);
+                        return;
+                    }
+                    // still short, so history shrank, as when changeOwner moves an account away: keep what
+                    // there is and recount, which clears the pages if the count went down
+                    refresh();
+                } else {
+                    retries.remove(page);
+                }
+                pages.put(page, items);
+                beginChange();
+                for (int pos = hi - 1; pos >= lo; pos--) nextSet(size - 1 - pos, null);
+                endChange();
+            });
+        }
+    }
+
+    // ======== JavaFX adapter ========
+    // Observable views over BankService for what is on screen. Service events arrive on whatever
+    // thread made the transfer and are applied on the FX thread.
+    public static class FxBankView {
+        private final BankService bank;
+        private final Map<String, ObservableList<Account>> accountsByUser = new HashMap<>();
+        private final ReadOnlyObjectWrapper<Transaction> lastTransaction = new ReadOnlyObjectWrapper<>();
+        private final ReadOnlyObjectWrapper<List<Transaction>> lastBatch = new ReadOnlyObjectWrapper<>();
+        private final ReadOnlyObjectWrapper<Set<String>> historyLoaded = new ReadOnlyObjectWrapper<>();
+        private final Map<String, ReadOnlyLongWrapper> totals = new HashMap<>();
+
+        public FxBankView(BankService bank) {
+            this.bank = bank;
+            bank.addListener(new BankListener() {
+                @Override
+                public void onTransfer(Transaction t, Account from, Account to) {
+                    onFxThread(() -> {
+                        touch(from);
+                        touch(to);
+                        lastTransaction.set(t);
+                    });
+                }
+
+                // a payroll run is one hop to the FX thread, not one per payee
+                @Override
+                public void onBatch(List<Transaction> committed, Map<String, Account> touched) {
+                    onFxThread(() -> {
+                        touched.values().forEach(FxBankView.this::touch);
+                        lastBatch.set(committed);
+                    });
+                }
+
+                @Override
+                public void onHistoryLoaded(Set<String> usernames) {
+                    onFxThread(() -> historyLoaded.set(usernames));
+                }
+
+                // read the total again on the FX thread: updates from different threads can arrive out of order
+                @Override
+                public void onTotalChanged(String username, long total) {
+                    onFxThread(() -> {
+                        var p = totals.get(username);
+                        if (p != null) p.set(bank.totalOf(username));
+                    });
+                }
+            });
+        }
+
+        // live list of the session user's accounts, built the first time a screen asks for it
+        public ObservableList<Account> accounts(Session session) {
+            return accountsByUser.computeIfAbsent(session.getUser().getUsername(),
+                    u -> FXCollections.observableArrayList(bank.listAccounts(session.getToken())));
+        }
+
+        // the session user's total balance in paise, kept current by the service's per-user totals
+        public ReadOnlyLongProperty totalProperty(Session session) {
+            return totals.computeIfAbsent(session.getUser().getUsername(),
+                    u -> new ReadOnlyLongWrapper(bank.totalBalance(session.getToken()))).getReadOnlyProperty();
+        }
+
+        // fires once per transfer with the new transaction
+        public ReadOnlyObjectProperty<Transaction> lastTransactionProperty() {
+            return lastTransaction.getReadOnlyProperty();
+        }
+
+        // fires once per batch with its transactions in seq order
+        public ReadOnlyObjectProperty<List<Transaction>> lastBatchProperty() {
+            return lastBatch.getReadOnlyProperty();
+        }
+
+        // fires once older history has been merged in, with the users whose history grew
+        public ReadOnlyObjectProperty<Set<String>> historyLoadedProperty() {
+            return historyLoaded.getReadOnlyProperty();
+        }
+
+        // how an account reads in a picker, "name (id)"
+        public static StringConverter<Account> accountConverter() {
+            return new StringConverter<>() {
+                @Override public String toString(Account a) { return a == null ? "" : a.getName() + " (" + a.getId() + ")"; }
+                @Override public Account fromString(String s) { return null; }
+            };
+        }
+
+        // re-set the entry so tables and bindings over the list see the new balance
+        private void touch(Account a) {
+            var list = accountsByUser.get(a.getOwnerUsername());
+            if (list == null) return;
+            int i = list.indexOf(a);
+            if (i >= 0) list.set(i, a);
+        }
+
+        private static void onFxThread(Runnable r) {
+            if (Platform.isFxApplicationThread()) r.run(); else Platform.runLater(r);
         }
     }
 